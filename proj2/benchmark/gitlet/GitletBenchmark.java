@@ -0,0 +1,635 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.IntFunction;
+
+/**
+ * @description micro benchmarks of gitlet internals on synthetic data, run without any repository.
+ * they are kept out of the gitlet directory and built apart by "make bench" in proj2, then run from there:
+ * <p>
+ * java -cp .:benchmark gitlet.GitletBenchmark merge-base [commits]
+ * java -cp .:benchmark gitlet.GitletBenchmark index [entries]
+ * java -cp .:benchmark gitlet.GitletBenchmark commit [files]
+ * java -cp .:benchmark gitlet.GitletBenchmark tree [files]
+ * java -cp .:benchmark gitlet.GitletBenchmark find [commits]
+ * java -cp .:benchmark gitlet.GitletBenchmark log [commits]
+ * java -cp .:benchmark gitlet.GitletBenchmark startup [files]
+ * java -cp .:benchmark gitlet.GitletBenchmark chunk [megabytes]
+ * java -cp .:benchmark gitlet.GitletBenchmark fetch [files] [loose|pack]
+ * java -cp .:benchmark gitlet.GitletBenchmark push [files] [loose|pack]
+ */
+public class GitletBenchmark {
+    private static final int REPEAT = 20;
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.out.println("Usage: java gitlet.GitletBenchmark merge-base [commits] | index [entries] | commit [files] | tree [files] | find [commits] | log [commits] | startup [files] | chunk [megabytes] | fetch [files] [loose|pack] | push [files] [loose|pack]");
+            return;
+        }
+        switch (args[0]) {
+            case "merge-base":
+                mergeBase(args.length > 1 ? Integer.parseInt(args[1]) : 10000);
+                break;
+            case "index":
+                index(args.length > 1 ? Integer.parseInt(args[1]) : 100000);
+                break;
+            case "commit":
+                commit(args.length > 1 ? Integer.parseInt(args[1]) : 100);
+                break;
+            case "tree":
+                tree(args.length > 1 ? Integer.parseInt(args[1]) : 50000);
+                break;
+            case "find":
+                find(args.length > 1 ? Integer.parseInt(args[1]) : 10000);
+                break;
+            case "log":
+                log(args.length > 1 ? Integer.parseInt(args[1]) : 20000);
+                break;
+            case "startup":
+                startup(args.length > 1 ? Integer.parseInt(args[1]) : 20000);
+                break;
+            case "chunk":
+                chunk(args.length > 1 ? Integer.parseInt(args[1]) : 64);
+                break;
+            case "fetch":
+                fetch(args.length > 1 ? Integer.parseInt(args[1]) : 5000, args.length > 2 ? args[2] : "loose");
+                break;
+            case "push":
+                push(args.length > 1 ? Integer.parseInt(args[1]) : 5000, args.length > 2 ? args[2] : "loose");
+                break;
+            default:
+                System.out.println("No benchmark with that name exists.");
+        }
+    }
+
+    /**
+     * a trunk with the first half of the commits, then two long-lived branches sharing the rest.
+     * the second branch is merged into the first every 50 commits, and the history ends with a criss-cross,
+     * so the merge bases are near the heads while the full ancestor sets are huge
+     */
+    private static void mergeBase(int commits) {
+        CommitGraph graph = CommitGraph.inMemory();
+        long time = 0;
+        int trunk = CommitGraph.NO_PARENT;
+        for (int i = 0; i < commits / 2; i += 1) {
+            trunk = graph.addSynthetic(syntheticId(graph), trunk, CommitGraph.NO_PARENT, time++);
+        }
+        int head1 = trunk;
+        int head2 = trunk;
+        for (int i = 0; graph.size() < commits - 2; i += 1) {
+            head2 = graph.addSynthetic(syntheticId(graph), head2, CommitGraph.NO_PARENT, time++);
+            int merged = i % 50 == 49 ? head2 : CommitGraph.NO_PARENT;
+            head1 = graph.addSynthetic(syntheticId(graph), head1, merged, time++);
+        }
+        int crossed1 = graph.addSynthetic(syntheticId(graph), head1, head2, time++);
+        int crossed2 = graph.addSynthetic(syntheticId(graph), head2, head1, time++);
+        System.out.printf("merge-base on %d commits (generation %d)%n", graph.size(), graph.generationOf(crossed1));
+
+        runMergeBase("diverged branches", graph, head1, head2);
+        runMergeBase("criss-cross", graph, crossed1, crossed2);
+    }
+
+    private static void runMergeBase(String name, CommitGraph graph, int commit1, int commit2) {
+        List<Integer> bases = null;
+        long start = System.nanoTime();
+        for (int i = 0; i < REPEAT; i += 1) {
+            bases = MergeBaseUtils.mergeBases(graph, commit1, commit2);
+        }
+        double paintMillis = (System.nanoTime() - start) / 1e6 / REPEAT;
+
+        start = System.nanoTime();
+        String naiveBase = naiveSplitPoint(graph, commit1, commit2);
+        double naiveMillis = (System.nanoTime() - start) / 1e6;
+
+        System.out.printf("  %-18s paint walk %8.3f ms, %d base(s)%n", name, paintMillis, bases.size());
+        System.out.printf("  %-18s ancestor lists %8.3f ms, same base: %b%n", "", naiveMillis,
+                naiveBase.equals(graph.idAt(bases.get(0))));
+    }
+
+    /**
+     * the former split point search: list both ancestor sets, intersect them with List.contains,
+     * and keep the common ancestor with the latest commit time
+     */
+    private static String naiveSplitPoint(CommitGraph graph, int commit1, int commit2) {
+        List<String> ancestors1 = ancestorIds(graph, commit1);
+        List<String> ancestors2 = ancestorIds(graph, commit2);
+        String res = null;
+        long resTime = 0;
+        for (String commitId : ancestors1) {
+            if (ancestors2.contains(commitId)) {
+                long commitTime = graph.commitTimeOf(graph.positionOf(commitId));
+                if (res == null || commitTime > resTime) {
+                    res = commitId;
+                    resTime = commitTime;
+                }
+            }
+        }
+        return res;
+    }
+
+    private static List<String> ancestorIds(CommitGraph graph, int commit) {
+        BitSet ancestors = graph.ancestors(graph.idAt(commit));
+        List<String> res = new LinkedList<>();
+        for (int p = ancestors.nextSetBit(0); p >= 0; p = ancestors.nextSetBit(p + 1)) {
+            res.add(graph.idAt(p));
+        }
+        return res;
+    }
+
+    /**
+     * save and load an index of synthetic entries, every one with a stat, in a temporary folder.
+     * the first round is cold and sorts every file name, the rest are averaged and reuse the order read back;
+     * the serialized HashMap the index used to be is timed too
+     */
+    private static void index(int entries) {
+        HashMap<String, String> indexMap = new HashMap<>();
+        HashMap<String, IndexUtils.FileStat> stats = new HashMap<>();
+        for (int i = 0; i < entries; i += 1) {
+            String fileName = String.format("src/module%03d/File%06d.java", i % 500, i);
+            String fileSHA1 = Utils.sha1(fileName);
+            indexMap.put(fileName, fileSHA1);
+            stats.put(fileName, new IndexUtils.FileStat(1000 + i, 1_600_000_000_000_000_000L + i, null, fileSHA1));
+        }
+        File dir;
+        try {
+            dir = Files.createTempDirectory("gitlet-index").toFile();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        File indexFile = new File(dir, "index");
+        File journalFile = new File(dir, "index-journal");
+        File serializedFile = new File(dir, "index-serialized");
+        System.out.printf("index with %d entries%n", entries);
+
+        double[] times = new double[4];
+        List<String> sortedFileNames = new ArrayList<>();
+        for (int round = 0; round <= REPEAT; round += 1) {
+            long start = System.nanoTime();
+            IndexFile.write(indexFile, journalFile, indexMap, stats, sortedFileNames, null);
+            long written = System.nanoTime();
+            sortedFileNames = IndexFile.read(indexFile, journalFile).sortedFileNames;
+            long read = System.nanoTime();
+            Utils.writeObject(serializedFile, indexMap);
+            long serialized = System.nanoTime();
+            IndexUtils.hashMapRead(serializedFile);
+            long deserialized = System.nanoTime();
+            if (round == 0) {
+                System.out.printf("  cold: binary save %.1f ms, load %.1f ms; serialized save %.1f ms, load %.1f ms%n",
+                        (written - start) / 1e6, (read - written) / 1e6,
+                        (serialized - read) / 1e6, (deserialized - serialized) / 1e6);
+                continue;
+            }
+            times[0] += (written - start) / 1e6 / REPEAT;
+            times[1] += (read - written) / 1e6 / REPEAT;
+            times[2] += (serialized - read) / 1e6 / REPEAT;
+            times[3] += (deserialized - serialized) / 1e6 / REPEAT;
+        }
+        System.out.printf("  warm: binary save %.1f ms, load %.1f ms; serialized save %.1f ms, load %.1f ms%n",
+                times[0], times[1], times[2], times[3]);
+        System.out.printf("  size: binary %d bytes, serialized %d bytes (without stats)%n",
+                indexFile.length(), serializedFile.length());
+
+        List<String> changed = new ArrayList<>(indexMap.keySet()).subList(0, Math.min(100, entries));
+        long start = System.nanoTime();
+        IndexFile.append(journalFile, changed, indexMap, stats);
+        System.out.printf("  append %d journal records %.1f ms%n", changed.size(), (System.nanoTime() - start) / 1e6);
+        start = System.nanoTime();
+        IndexFile.Contents replayed = IndexFile.read(indexFile, journalFile);
+        System.out.printf("  load with %d journal records %.1f ms, same entries: %b%n",
+                replayed.journalRecords, (System.nanoTime() - start) / 1e6, replayed.indexMap.equals(indexMap));
+
+        indexFile.delete();
+        journalFile.delete();
+        serializedFile.delete();
+        dir.delete();
+    }
+
+    /**
+     * encode and decode a commit of synthetic files, against java serialization which commits used to be stored in.
+     * the commit lists its files as CommitCodec version 1 does, a commit with a tree only encodes the tree id.
+     * the first round is cold, which is most of the cost of a command reading a few commits
+     */
+    private static void commit(int files) {
+        Commit commit = CommitUtils.makeCommit("synthetic commit", Utils.sha1("parent"), new HashMap<>());
+        commit.setCodecVersion(CommitCodec.FILES_VERSION);
+        for (int i = 0; i < files; i += 1) {
+            String fileName = String.format("src/module%03d/File%06d.java", i % 500, i);
+            commit.getFileVersionMap().put(fileName, Utils.sha1(fileName));
+        }
+        System.out.printf("commit with %d files%n", files);
+        int repeat = REPEAT * 50;
+        double[] times = new double[4];
+        byte[] encoded = null;
+        byte[] serialized = null;
+        for (int round = 0; round <= repeat; round += 1) {
+            long start = System.nanoTime();
+            encoded = CommitCodec.encode(commit);
+            long encodedAt = System.nanoTime();
+            CommitCodec.decode(encoded, null);
+            long decodedAt = System.nanoTime();
+            serialized = Utils.serialize(commit);
+            long serializedAt = System.nanoTime();
+            Utils.deserialize(serialized, Commit.class);
+            long deserializedAt = System.nanoTime();
+            if (round == 0) {
+                System.out.printf("  cold: encode %.1f us, decode %.1f us; serialize %.1f us, deserialize %.1f us%n",
+                        (encodedAt - start) / 1e3, (decodedAt - encodedAt) / 1e3,
+                        (serializedAt - decodedAt) / 1e3, (deserializedAt - serializedAt) / 1e3);
+                continue;
+            }
+            times[0] += (encodedAt - start) / 1e3 / repeat;
+            times[1] += (decodedAt - encodedAt) / 1e3 / repeat;
+            times[2] += (serializedAt - decodedAt) / 1e3 / repeat;
+            times[3] += (deserializedAt - serializedAt) / 1e3 / repeat;
+        }
+        System.out.printf("  warm: encode %.1f us, decode %.1f us; serialize %.1f us, deserialize %.1f us%n",
+                times[0], times[1], times[2], times[3]);
+        System.out.printf("  size: encoded %d bytes, serialized %d bytes, same files: %b%n", encoded.length,
+                serialized.length, CommitCodec.decode(encoded, null).getFileVersionMap().equals(commit.getFileVersionMap()));
+    }
+
+    /**
+     * write the trees of synthetic files to a temporary folder, then change 10 files and write the trees
+     * again from the previous root tree, against writing all of them.
+     * the files are all in one directory, which is what gitlet's flat working directory gives,
+     * then in 500 directories, which only shows what subtree sharing would save
+     */
+    private static void tree(int files) {
+        tree(files, "in one directory", i -> String.format("File%06d.java", i));
+        tree(files, "in 500 directories", i -> String.format("src/module%03d/File%06d.java", i % 500, i));
+    }
+
+    private static void tree(int files, String layout, IntFunction<String> fileNames) {
+        HashMap<String, String> fileVersionMap = new HashMap<>();
+        for (int i = 0; i < files; i += 1) {
+            String fileName = fileNames.apply(i);
+            fileVersionMap.put(fileName, Utils.sha1(fileName));
+        }
+        File gitletDir;
+        try {
+            gitletDir = Files.createTempDirectory("gitlet-tree").toFile();
+            Files.createDirectory(new File(gitletDir, GitletConstants.OBJECTS_DIR.getName()).toPath());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        System.out.printf("trees of %d files %s%n", files, layout);
+        long start = System.nanoTime();
+        String baseTreeId = TreeUtils.writeTree(gitletDir, fileVersionMap);
+        System.out.printf("  first write %.1f ms%n", (System.nanoTime() - start) / 1e6);
+
+        double[] times = new double[3];
+        for (int round = 1; round <= REPEAT; round += 1) {
+            Set<String> changed = new HashSet<>();
+            for (int i = 0; i < 10; i += 1) {
+                int k = (round * 7919 + i * 104729) % files;
+                String fileName = fileNames.apply(k);
+                fileVersionMap.put(fileName, Utils.sha1(fileName + round));
+                changed.add(fileName);
+            }
+            start = System.nanoTime();
+            String treeId = TreeUtils.updateTree(gitletDir, baseTreeId, fileVersionMap, changed);
+            long updated = System.nanoTime();
+            int changes = TreeUtils.diff(gitletDir, baseTreeId, treeId).size();
+            long diffed = System.nanoTime();
+            String writtenTreeId = TreeUtils.writeTree(gitletDir, fileVersionMap);
+            long written = System.nanoTime();
+            if (changes != changed.size() || !writtenTreeId.equals(treeId)) {
+                throw new IllegalStateException("trees differ from the files");
+            }
+            times[0] += (updated - start) / 1e6 / REPEAT;
+            times[1] += (diffed - updated) / 1e6 / REPEAT;
+            times[2] += (written - diffed) / 1e6 / REPEAT;
+            baseTreeId = treeId;
+        }
+        System.out.printf("  10 changed files: update trees %.2f ms, diff trees %.2f ms, write all trees %.1f ms%n",
+                times[0], times[1], times[2]);
+        deleteRecursively(gitletDir);
+    }
+
+    /**
+     * save synthetic commits to a temporary folder and build their message index, which reads every commit
+     * like find used to, then look up an exact message and a substring of a few commits
+     */
+    private static void find(int commits) {
+        File gitletDir = tempGitletDir("gitlet-find");
+        syntheticCommits(gitletDir, commits);
+        System.out.printf("find in %d commits%n", commits);
+        long start = System.nanoTime();
+        CommitMessageIndex messageIndex = CommitMessageIndex.of(gitletDir);
+        long built = System.nanoTime();
+        int exact = messageIndex.findByMessage("change 7 of module007").size();
+        long found = System.nanoTime();
+        int substrings = messageIndex.findBySubstring("of module123").size();
+        long grepped = System.nanoTime();
+        System.out.printf("  build index (reads every commit) %.1f ms%n", (built - start) / 1e6);
+        System.out.printf("  exact message %.2f ms (%d found), substring %.2f ms (%d found)%n",
+                (found - built) / 1e6, exact, (grepped - found) / 1e6, substrings);
+        deleteRecursively(gitletDir);
+    }
+
+    /**
+     * save a chain of synthetic commits to a temporary folder, then time the first page of log,
+     * read lazily, against reading the whole history before printing as log used to
+     */
+    private static void log(int commits) {
+        File gitletDir = tempGitletDir("gitlet-log");
+        String headId = syntheticCommits(gitletDir, commits);
+        System.out.printf("log of %d commits%n", commits);
+        StringWriter page = new StringWriter();
+        PrintWriter out = new PrintWriter(page);
+        long start = System.nanoTime();
+        Iterator<Commit> history = CommitUtils.firstParentIterator(gitletDir, headId);
+        for (int i = 0; i < 10 && history.hasNext(); i += 1) {
+            history.next().printCommitInfo(out);
+        }
+        long firstPage = System.nanoTime();
+        List<Commit> all = new LinkedList<>();
+        CommitUtils.firstParentIterator(gitletDir, headId).forEachRemaining(all::add);
+        long whole = System.nanoTime();
+        System.out.printf("  first page of 10 %.1f ms; whole history read first %.1f ms (%d commits)%n",
+                (firstPage - start) / 1e6, (whole - firstPage) / 1e6, all.size());
+        deleteRecursively(gitletDir);
+    }
+
+    /**
+     * commands run by the startup benchmark, none of them changes the repository after its first run
+     */
+    private static final String[][] STARTUP_COMMANDS = {{"log", "-n", "1"}, {"global-log", "-n", "1"},
+        {"find", "commit 0"}, {"branch", "other"}, {"config", ConfigUtils.COMPRESSION_KEY},
+        {"checkout", "--", "file00000"}, {"fetch", "origin", "master"}, {"status"}};
+
+    /**
+     * commit the files in a temporary repository, then run every command in a new JVM, as gitlet runs,
+     * and print its median wall time with the repository state it read, which the commands report
+     * when GITLET_TRACE is set. an empty command only starts the JVM
+     */
+    private static void startup(int files) {
+        File dir;
+        try {
+            dir = Files.createTempDirectory("gitlet-startup").toFile();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        runGitlet(dir, "init");
+        for (int i = 0; i < files; i += 1) {
+            Utils.writeContents(new File(dir, String.format("file%05d", i)), "contents of file " + i + "\n");
+        }
+        runGitlet(dir, "add", ".");
+        runGitlet(dir, "commit", "commit 0");
+        runGitlet(dir, "add-remote", "origin", "../elsewhere/.gitlet");
+        System.out.printf("startup of commands in a repository of %d files%n", files);
+        List<String[]> commands = new ArrayList<>();
+        commands.add(new String[0]);
+        commands.addAll(Arrays.asList(STARTUP_COMMANDS));
+        for (String[] command : commands) {
+            double[] millis = new double[5];
+            List<String> reads = null;
+            for (int i = 0; i < millis.length; i += 1) {
+                long start = System.nanoTime();
+                reads = runGitlet(dir, command);
+                millis[i] = (System.nanoTime() - start) / 1e6;
+            }
+            Arrays.sort(millis);
+            reads.removeIf(line -> !line.matches("(HEAD|index|remotes): .*"));
+            String name = command.length == 0 ? "(no command)" : String.join(" ", command);
+            System.out.printf("  %-28s %7.1f ms  reads: %s%n", name,
+                    millis[millis.length / 2], reads.isEmpty() ? "nothing" : String.join(", ", reads));
+        }
+        deleteRecursively(dir);
+    }
+
+    /**
+     * run gitlet.Main with the arguments in the folder in a new JVM, tracing
+     *
+     * @return what it printed to stderr, line by line
+     */
+    private static List<String> runGitlet(File dir, String... args) {
+        List<String> command = new ArrayList<>(List.of(
+                Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"), "gitlet.Main"));
+        command.addAll(Arrays.asList(args));
+        ProcessBuilder builder = new ProcessBuilder(command).directory(dir)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        builder.environment().put("GITLET_TRACE", "1");
+        try {
+            Process process = builder.start();
+            String stderr = new String(process.getErrorStream().readAllBytes());
+            process.waitFor();
+            return new ArrayList<>(Arrays.asList(stderr.split("\n")));
+        } catch (IOException | InterruptedException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * store a random file chunked, then a second version with a few small insertions and overwrites,
+     * and count the chunks the versions share. the second version is then streamed back chunk by chunk
+     */
+    private static void chunk(int megabytes) {
+        File gitletDir = tempGitletDir("gitlet-chunk");
+        File objectsDir = new File(gitletDir, GitletConstants.OBJECTS_DIR.getName());
+        objectsDir.mkdir();
+        Random random = new Random(21);
+        byte[] version1 = new byte[megabytes << 20];
+        random.nextBytes(version1);
+        byte[] version2 = version1;
+        for (int i = 0; i < 10; i += 1) {
+            int position = random.nextInt(version2.length);
+            byte[] edited = new byte[version2.length + (i % 2 == 0 ? 16 : 0)];
+            System.arraycopy(version2, 0, edited, 0, position);
+            System.arraycopy(version2, position, edited, edited.length - (version2.length - position),
+                    version2.length - position);
+            for (int j = 0; j < 16 && position + j < edited.length; j += 1) {
+                edited[position + j] = (byte) random.nextInt();
+            }
+            version2 = edited;
+        }
+        System.out.printf("chunk versions of a %d MB file with 10 small edits%n", megabytes);
+        List<String> chunks1 = writeChunkedVersion(gitletDir, "version 1", version1);
+        List<String> chunks2 = writeChunkedVersion(gitletDir, "version 2", version2);
+        Set<String> shared = new HashSet<>(chunks1);
+        shared.retainAll(chunks2);
+        long stored = 0;
+        for (String id : ObjectPathUtils.listLooseIds(objectsDir)) {
+            stored += ObjectPathUtils.looseFile(objectsDir, id).length();
+        }
+        System.out.printf("  %d of %d chunks shared, %.1f MB stored for %.1f MB of versions%n", shared.size(),
+                chunks2.size(), stored / 1048576.0, (version1.length + version2.length) / 1048576.0);
+
+        long start = System.nanoTime();
+        try (OutputStream out = OutputStream.nullOutputStream()) {
+            FileUtils.writeBlobTo(gitletDir, Utils.sha1((Object) version2), out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        System.out.printf("  stream version 2 back %.1f ms%n", (System.nanoTime() - start) / 1e6);
+        deleteRecursively(gitletDir);
+    }
+
+    /**
+     * fetch a repository of many files and 10 commits into an empty one, then fetch again after one more commit
+     * and after none. each fetch runs in a new JVM, and reports what it copied
+     *
+     * @param transfer the remote.transfer of the fetching repository
+     */
+    private static void fetch(int files, String transfer) {
+        File dir;
+        try {
+            dir = Files.createTempDirectory("gitlet-fetch").toFile();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        File remote = new File(dir, "remote");
+        File local = new File(dir, "local");
+        remote.mkdir();
+        local.mkdir();
+        runGitlet(remote, "init");
+        for (int i = 0; i < files; i += 1) {
+            Utils.writeContents(new File(remote, String.format("file%05d", i)), "contents of file " + i + "\n");
+        }
+        for (int i = 0; i <= 10; i += 1) {
+            if (i > 0) {
+                Utils.writeContents(new File(remote, String.format("file%05d", i)), "change " + i + "\n");
+            }
+            runGitlet(remote, "add", ".");
+            runGitlet(remote, "commit", "commit " + i);
+            if (i == 9) {
+                runGitlet(local, "init");
+                runGitlet(local, "add-remote", "origin", "../remote/.gitlet");
+                runGitlet(local, "config", ConfigUtils.TRANSFER_KEY, transfer);
+                System.out.printf("fetch from a repository of %d files, %s=%s%n", files,
+                        ConfigUtils.TRANSFER_KEY, transfer);
+                timeRemote(local, "fetch", "10 commits");
+            }
+        }
+        timeRemote(local, "fetch", "1 new commit");
+        timeRemote(local, "fetch", "nothing new");
+        deleteRecursively(dir);
+    }
+
+    /**
+     * push a repository of many files to an empty one, then push a branch of 20 commits,
+     * each changing one file, on top of it
+     *
+     * @param transfer the remote.transfer of the pushing repository
+     */
+    private static void push(int files, String transfer) {
+        File dir;
+        try {
+            dir = Files.createTempDirectory("gitlet-push").toFile();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        File remote = new File(dir, "remote");
+        File local = new File(dir, "local");
+        remote.mkdir();
+        local.mkdir();
+        runGitlet(remote, "init");
+        runGitlet(local, "init");
+        runGitlet(local, "add-remote", "origin", "../remote/.gitlet");
+        runGitlet(local, "config", ConfigUtils.TRANSFER_KEY, transfer);
+        for (int i = 0; i < files; i += 1) {
+            Utils.writeContents(new File(local, String.format("file%05d", i)), "contents of file " + i + "\n");
+        }
+        runGitlet(local, "add", ".");
+        runGitlet(local, "commit", "commit 0");
+        System.out.printf("push to a repository of %d files, %s=%s%n", files, ConfigUtils.TRANSFER_KEY, transfer);
+        timeRemote(local, "push", "1 commit");
+        for (int i = 1; i <= 20; i += 1) {
+            Utils.writeContents(new File(local, String.format("file%05d", i)), "change " + i + "\n");
+            runGitlet(local, "add", String.format("file%05d", i));
+            runGitlet(local, "commit", "commit " + i);
+        }
+        timeRemote(local, "push", "20 commits");
+        deleteRecursively(dir);
+    }
+
+    /**
+     * run fetch or push with the remote origin and its branch master, and print what it copied
+     */
+    private static void timeRemote(File local, String command, String name) {
+        long start = System.nanoTime();
+        List<String> trace = runGitlet(local, command, "origin", "master");
+        double millis = (System.nanoTime() - start) / 1e6;
+        trace.removeIf(line -> !line.startsWith(command + ": "));
+        System.out.printf("  %-14s %8.1f ms  %s%n", name, millis,
+                trace.isEmpty() ? "" : trace.get(0).substring(command.length() + 2));
+    }
+
+    /**
+     * @return the chunk ids of the contents, stored chunked in the .gitlet folder
+     */
+    private static List<String> writeChunkedVersion(File gitletDir, String name, byte[] contents) {
+        File objectsDir = new File(gitletDir, GitletConstants.OBJECTS_DIR.getName());
+        String id = Utils.sha1((Object) contents);
+        try {
+            File source = File.createTempFile("gitlet-chunk-", ".bin");
+            Files.write(source.toPath(), contents);
+            long start = System.nanoTime();
+            ChunkUtils.writeChunked(gitletDir, source, ObjectPathUtils.newLooseFile(objectsDir, id));
+            double millis = (System.nanoTime() - start) / 1e6;
+            source.delete();
+            List<String> chunkIds = ChunkUtils.chunkIds(
+                    CompressUtils.readObject(ObjectPathUtils.looseFile(objectsDir, id)));
+            System.out.printf("  %-10s %d chunks of %d KB on average, written in %.1f ms (%.0f MB/s)%n", name,
+                    chunkIds.size(), contents.length / chunkIds.size() >> 10, millis,
+                    contents.length / 1048576.0 / (millis / 1000));
+            return chunkIds;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * @return a temporary .gitlet folder with an empty commits folder
+     */
+    private static File tempGitletDir(String prefix) {
+        try {
+            File gitletDir = Files.createTempDirectory(prefix).toFile();
+            Files.createDirectory(new File(gitletDir, GitletConstants.COMMITS_DIR.getName()).toPath());
+            return gitletDir;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * save a chain of commits, each the parent of the next, to the .gitlet folder
+     *
+     * @return the id of the last commit
+     */
+    private static String syntheticCommits(File gitletDir, int commits) {
+        File commitsDir = new File(gitletDir, GitletConstants.COMMITS_DIR.getName());
+        String parentId = null;
+        for (int i = 0; i < commits; i += 1) {
+            Commit commit = CommitUtils.makeCommit(String.format("change %d of module%03d", i, i % 500),
+                    parentId, new HashMap<>());
+            commit.setCodecVersion(CommitCodec.FILES_VERSION);
+            byte[] stored = CommitCodec.encode(commit);
+            parentId = Utils.sha1(stored);
+            CompressUtils.writeObject(ObjectPathUtils.newLooseFile(commitsDir, parentId), stored);
+        }
+        return parentId;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static String syntheticId(CommitGraph graph) {
+        return Utils.sha1("synthetic commit " + graph.size());
+    }
+}
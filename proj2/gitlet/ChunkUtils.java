@@ -0,0 +1,196 @@
+package gitlet;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static gitlet.GitletConstants.OBJECTS_DIR;
+import static gitlet.GitletConstants.PACKS_DIR;
+import static gitlet.GitletConstants.TRACE;
+import static gitlet.Utils.*;
+
+/**
+ * @description class for chunked blobs.
+ * a large file is cut into chunks at content defined points, and every chunk is stored as an object of its own,
+ * so versions which differ by a few bytes, or different files with a common part, share most of their chunks.
+ * the blob itself is a list of its chunks:
+ * <p>
+ * chunked object: MAGIC | chunk count | content length(8 bytes) | (chunk id(20 bytes) | chunk length)...
+ * <p>
+ * cut points are found FastCDC style: a gear hash rolls over the bytes after MIN_CHUNK_SIZE, and a chunk ends
+ * where its highest bits are zero. more bits are tested before AVERAGE_CHUNK_SIZE than after it,
+ * which keeps most chunks close to the average, and no chunk is longer than MAX_CHUNK_SIZE.
+ * an insertion only moves the cut points around it, so the chunks after it are found again.
+ */
+public class ChunkUtils {
+    /**
+     * files at least this large are stored chunked, smaller ones whole or as a delta
+     */
+    public static final long CHUNK_THRESHOLD = 1L << 20;
+    public static final int MIN_CHUNK_SIZE = 16 << 10;
+    public static final int AVERAGE_CHUNK_SIZE = 64 << 10;
+    public static final int MAX_CHUNK_SIZE = 256 << 10;
+
+    private static final byte[] MAGIC = {0, 'G', 'C', 'K'};
+    private static final int HEADER_SIZE = MAGIC.length + 4 + 8;
+    private static final int ID_BYTES = UID_LENGTH / 2;
+    private static final int ENTRY_SIZE = ID_BYTES + 4;
+    /**
+     * 18 and 14 of the highest bits, around the 16 bits of the average chunk size
+     */
+    private static final long MASK_SMALL = -1L << (64 - 18);
+    private static final long MASK_LARGE = -1L << (64 - 14);
+    /**
+     * a random value for every byte, fixed by the seed so every repository cuts the same contents the same way
+     */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        SplittableRandom random = new SplittableRandom(0x6769746c6574L);
+        for (int i = 0; i < GEAR.length; i += 1) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    /**
+     * @return if the stored form (or at least its first bytes) is a chunked object
+     */
+    public static boolean isChunked(byte[] stored) {
+        return stored.length >= MAGIC.length && Arrays.equals(stored, 0, MAGIC.length, MAGIC, 0, MAGIC.length);
+    }
+
+    /**
+     * @return the length of the first chunk of the data, which holds the next length bytes of a file.
+     * fewer than MAX_CHUNK_SIZE bytes are only given at the end of the file
+     */
+    static int cutPoint(byte[] data, int length) {
+        if (length <= MIN_CHUNK_SIZE) {
+            return length;
+        }
+        int normal = Math.min(length, AVERAGE_CHUNK_SIZE);
+        int end = Math.min(length, MAX_CHUNK_SIZE);
+        long hash = 0;
+        int i = MIN_CHUNK_SIZE;
+        for (; i < normal; i += 1) {
+            hash = (hash << 1) + GEAR[data[i] & 0xff];
+            if ((hash & MASK_SMALL) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < end; i += 1) {
+            hash = (hash << 1) + GEAR[data[i] & 0xff];
+            if ((hash & MASK_LARGE) == 0) {
+                return i + 1;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * cut the source into chunks, store the chunks the repository doesn't have yet as objects,
+     * and write the list of chunks to the object file. the source is read once, MAX_CHUNK_SIZE bytes at a time
+     *
+     * @param gitletDir the .gitlet folder the object file is in
+     */
+    public static void writeChunked(File gitletDir, File source, File objectFile) {
+        File objectsDir = join(gitletDir, OBJECTS_DIR.getName());
+        File packsDir = join(gitletDir, PACKS_DIR.getName());
+        ByteArrayOutputStream entries = new ByteArrayOutputStream();
+        byte[] buffer = new byte[MAX_CHUNK_SIZE];
+        int filled = 0;
+        int count = 0;
+        int written = 0;
+        long length = 0;
+        try (InputStream in = new FileInputStream(source)) {
+            while (true) {
+                filled += in.readNBytes(buffer, filled, buffer.length - filled);
+                if (filled == 0) {
+                    break;
+                }
+                int chunkLength = cutPoint(buffer, filled);
+                byte[] chunk = Arrays.copyOf(buffer, chunkLength);
+                String chunkId = sha1((Object) chunk);
+                if (!ObjectPathUtils.looseFile(objectsDir, chunkId).exists()
+                        && !PackUtils.hasObject(packsDir, chunkId)) {
+                    CompressUtils.writeObject(ObjectPathUtils.newLooseFile(objectsDir, chunkId),
+                            DeltaUtils.literal(chunk));
+                    written += 1;
+                }
+                entries.write(idToBytes(chunkId));
+                entries.write(ByteBuffer.allocate(4).putInt(chunkLength).array());
+                count += 1;
+                length += chunkLength;
+                System.arraycopy(buffer, chunkLength, buffer, 0, filled - chunkLength);
+                filled -= chunkLength;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        ByteBuffer chunked = ByteBuffer.allocate(HEADER_SIZE + entries.size());
+        chunked.put(MAGIC).putInt(count).putLong(length).put(entries.toByteArray());
+        CompressUtils.writeObject(objectFile, chunked.array());
+        if (TRACE) {
+            System.err.printf("chunked %s: %d chunks, %d new%n", source.getName(), count, written);
+        }
+    }
+
+    /**
+     * @return ids of the chunks of a chunked object, in order
+     */
+    public static List<String> chunkIds(byte[] chunked) {
+        int count = chunkCount(chunked);
+        List<String> res = new ArrayList<>(count);
+        for (int i = 0; i < count; i += 1) {
+            res.add(bytesToId(chunked, HEADER_SIZE + i * ENTRY_SIZE));
+        }
+        return res;
+    }
+
+    /**
+     * @return the length of the contents of a chunked object
+     */
+    public static long contentLength(byte[] chunked) {
+        chunkCount(chunked);
+        return ByteBuffer.wrap(chunked).getLong(MAGIC.length + 4);
+    }
+
+    /**
+     * write the contents of a chunked object from some .gitlet folder to the stream, one chunk at a time
+     */
+    public static void writeChunksTo(File gitletDir, byte[] chunked, OutputStream out) throws IOException {
+        for (String chunkId : chunkIds(chunked)) {
+            FileUtils.writeBlobTo(gitletDir, chunkId, out);
+        }
+    }
+
+    /**
+     * @return the whole contents of a chunked object, for the few readers which need them in memory
+     */
+    public static byte[] readChunks(File gitletDir, byte[] chunked) {
+        long length = contentLength(chunked);
+        if (length > Integer.MAX_VALUE - 8) {
+            throw error("Object too large to be read at once.");
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream((int) length);
+        try {
+            writeChunksTo(gitletDir, chunked, out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return out.toByteArray();
+    }
+
+    private static int chunkCount(byte[] chunked) {
+        if (chunked.length < HEADER_SIZE || !isChunked(chunked)) {
+            throw error("Corrupted chunked object.");
+        }
+        int count = ByteBuffer.wrap(chunked).getInt(MAGIC.length);
+        if (count < 0 || chunked.length != HEADER_SIZE + (long) count * ENTRY_SIZE) {
+            throw error("Corrupted chunked object.");
+        }
+        return count;
+    }
+}
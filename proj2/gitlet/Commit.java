@@ -1,13 +1,26 @@
 package gitlet;
 
+import java.io.File;
+import java.io.PrintWriter;
 import java.io.Serializable;
-import java.text.SimpleDateFormat;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Locale;
-import java.util.TimeZone;
 
 public class Commit implements Serializable {
+    /**
+     * commits saved before CommitCodec are java serialized, keep reading them
+     */
+    private static final long serialVersionUID = 7694033574448478546L;
+    /**
+     * the time zone log prints dates in, and reads --since and --until in
+     */
+    static final ZoneId LOG_TIME_ZONE = ZoneOffset.ofHours(-8);
+    private static final DateTimeFormatter LOG_DATE_FORMAT =
+            DateTimeFormatter.ofPattern("EEE MMM d HH:mm:ss yyyy Z", Locale.US).withZone(LOG_TIME_ZONE);
 
     /**
      * The message of this Commit.
@@ -26,9 +39,27 @@ public class Commit implements Serializable {
      */
     private String secondParentId;
     /**
-     * store flat file name and its version(represented by SHA1)
+     * store file name and its version(represented by SHA1).
+     * null until it is first needed if the commit was read with a tree
      */
     private HashMap<String, String> fileVersionMap;
+    /**
+     * the id of a commit which was saved or read, null for a new commit
+     */
+    private transient String id;
+    /**
+     * if the commit was read from a java serialized object, it must be saved that way to keep its id
+     */
+    private transient boolean serialized;
+    /**
+     * the CommitCodec version the commit was read in, 0 for a new commit which is saved in the current one
+     */
+    private transient int codecVersion;
+    /**
+     * the root tree of the files, and the .gitlet folder to read it from
+     */
+    private transient String treeId;
+    private transient File gitletDir;
 
     public Commit() {
         fileVersionMap = new HashMap<>();
@@ -59,6 +90,9 @@ public class Commit implements Serializable {
     }
 
     public HashMap<String, String> getFileVersionMap() {
+        if (fileVersionMap == null) {
+            fileVersionMap = TreeUtils.readTree(gitletDir, treeId);
+        }
         return fileVersionMap;
     }
 
@@ -66,6 +100,22 @@ public class Commit implements Serializable {
         this.fileVersionMap = fileVersionMap;
     }
 
+    /**
+     * @return the id of the root tree, null if the commit wasn't saved with one
+     */
+    public String getTreeId() {
+        return treeId;
+    }
+
+    /**
+     * set the root tree of the commit, the files are read from it when first needed
+     */
+    public void setTree(File gitletDir, String treeId) {
+        this.gitletDir = gitletDir;
+        this.treeId = treeId;
+        this.fileVersionMap = null;
+    }
+
     public String getSecondParentId() {
         return secondParentId;
     }
@@ -74,19 +124,41 @@ public class Commit implements Serializable {
         this.secondParentId = secondParentId;
     }
 
+    String getId() {
+        return id;
+    }
+
+    void setId(String id) {
+        this.id = id;
+    }
+
+    boolean isSerialized() {
+        return serialized;
+    }
+
+    void setSerialized(boolean serialized) {
+        this.serialized = serialized;
+    }
+
+    int getCodecVersion() {
+        return codecVersion;
+    }
+
+    void setCodecVersion(int codecVersion) {
+        this.codecVersion = codecVersion;
+    }
+
     /**
      * print the information about commit for log
      */
-    public void printCommitInfo() {
-        SimpleDateFormat sdf = new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy Z", Locale.US);
-        sdf.setTimeZone(TimeZone.getTimeZone("GMT-8"));
-        System.out.println("===");
-        System.out.println("commit " + CommitUtils.getCommitId(this));
+    public void printCommitInfo(PrintWriter out) {
+        out.println("===");
+        out.println("commit " + CommitUtils.getCommitId(this));
         if (secondParentId != null) {
-            System.out.println("Merge: " + parentId.substring(0, 7) + " " + secondParentId.substring(0, 7));
+            out.println("Merge: " + parentId.substring(0, 7) + " " + secondParentId.substring(0, 7));
         }
-        System.out.println("Date: " + sdf.format(this.commitTime));
-        System.out.println(this.message);
-        System.out.println();
+        out.println("Date: " + LOG_DATE_FORMAT.format(this.commitTime.toInstant()));
+        out.println(this.message);
+        out.println();
     }
 }
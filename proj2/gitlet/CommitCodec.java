@@ -0,0 +1,131 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+
+import static gitlet.Utils.*;
+
+/**
+ * @description the binary commit format, which a commit id is the sha1 of.
+ * <p>
+ * commit:    "GCMT" | version | parent count | parent ids(20 bytes each) | commit time | message | files
+ * version 2: files are the id of the root tree(20 bytes), see TreeUtils
+ * version 1: files are a file count | (file name | id(20 bytes))... sorted by name
+ * <p>
+ * strings are an int length and utf-8 bytes, the commit time is in milliseconds.
+ * new commits are saved in version 2, a commit read in version 1 is saved in version 1 again to keep its id.
+ * commits saved before this format are java serialized objects, told apart by their first two bytes.
+ */
+class CommitCodec {
+    static final byte FILES_VERSION = 1;
+    static final byte TREE_VERSION = 2;
+
+    private static final int MAGIC = 0x47434d54; // "GCMT"
+    private static final int ID_BYTES = UID_LENGTH / 2;
+    private static final int JAVA_SERIALIZATION_MAGIC = 0xaced;
+
+    /**
+     * @return if the stored commit is a java serialized object, saved before this format
+     */
+    static boolean isSerialized(byte[] stored) {
+        return stored.length >= 2 && ((stored[0] & 0xff) << 8 | (stored[1] & 0xff)) == JAVA_SERIALIZATION_MAGIC;
+    }
+
+    /**
+     * encode the commit, whose tree must be saved already unless it was read in version 1
+     */
+    static byte[] encode(Commit commit) {
+        boolean withFiles = commit.getCodecVersion() == FILES_VERSION;
+        HashMap<String, String> fileVersionMap = withFiles ? commit.getFileVersionMap() : new HashMap<>();
+        String[] fileNames = fileVersionMap.keySet().toArray(new String[0]);
+        Arrays.sort(fileNames);
+        byte[][] encodedNames = new byte[fileNames.length][];
+        byte[] message = commit.getMessage().getBytes(StandardCharsets.UTF_8);
+        int parentCount = commit.getSecondParentId() != null ? 2 : commit.getParentId() != null ? 1 : 0;
+        int length = 4 + 1 + 1 + parentCount * ID_BYTES + 8 + 4 + message.length + (withFiles ? 4 : ID_BYTES);
+        for (int i = 0; i < fileNames.length; i += 1) {
+            encodedNames[i] = fileNames[i].getBytes(StandardCharsets.UTF_8);
+            length += 4 + encodedNames[i].length + ID_BYTES;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.putInt(MAGIC).put(withFiles ? FILES_VERSION : TREE_VERSION).put((byte) parentCount);
+        if (parentCount > 0) {
+            buffer.put(idToBytes(commit.getParentId()));
+        }
+        if (parentCount > 1) {
+            buffer.put(idToBytes(commit.getSecondParentId()));
+        }
+        buffer.putLong(commit.getCommitTime().getTime());
+        buffer.putInt(message.length).put(message);
+        if (!withFiles) {
+            buffer.put(idToBytes(commit.getTreeId()));
+            return buffer.array();
+        }
+        buffer.putInt(fileNames.length);
+        for (int i = 0; i < fileNames.length; i += 1) {
+            buffer.putInt(encodedNames[i].length).put(encodedNames[i]);
+            buffer.put(idToBytes(fileVersionMap.get(fileNames[i])));
+        }
+        return buffer.array();
+    }
+
+    /**
+     * @param gitletDir the .gitlet folder the commit was read from, its tree is read from there too
+     */
+    static Commit decode(byte[] stored, File gitletDir) {
+        ByteBuffer buffer = ByteBuffer.wrap(stored);
+        if (stored.length < 5 || buffer.getInt() != MAGIC) {
+            throw error("Corrupted commit.");
+        }
+        byte version = buffer.get();
+        if (version != FILES_VERSION && version != TREE_VERSION) {
+            throw error("Corrupted commit.");
+        }
+        try {
+            Commit commit = new Commit();
+            commit.setCodecVersion(version);
+            int parentCount = buffer.get();
+            if (parentCount > 0) {
+                commit.setParentId(readId(buffer));
+            }
+            if (parentCount > 1) {
+                commit.setSecondParentId(readId(buffer));
+            }
+            commit.setCommitTime(new Date(buffer.getLong()));
+            commit.setMessage(readString(buffer));
+            if (version == TREE_VERSION) {
+                commit.setTree(gitletDir, readId(buffer));
+                return commit;
+            }
+            int fileCount = buffer.getInt();
+            int capacity = (int) (Math.min(fileCount, buffer.remaining() / (4 + ID_BYTES)) / 0.75f) + 1;
+            HashMap<String, String> fileVersionMap = new HashMap<>(Math.max(16, capacity));
+            for (int i = 0; i < fileCount; i += 1) {
+                fileVersionMap.put(readString(buffer), readId(buffer));
+            }
+            commit.setFileVersionMap(fileVersionMap);
+            return commit;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException excp) {
+            throw error("Corrupted commit.");
+        }
+    }
+
+    private static String readId(ByteBuffer buffer) {
+        String id = bytesToId(buffer.array(), buffer.position());
+        buffer.position(buffer.position() + ID_BYTES);
+        return id;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        String s = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return s;
+    }
+}
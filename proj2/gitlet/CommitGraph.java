@@ -0,0 +1,320 @@
+package gitlet;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import static gitlet.Utils.*;
+
+/**
+ * @description the commit graph of one repository, .gitlet/commit-graph.
+ * it keeps, for every commit, the positions of its parents, its commit time and its generation number
+ * (1 for a root commit, otherwise 1 + the largest generation of its parents),
+ * so history walks never have to deserialize a commit just to find its parents.
+ * <p>
+ * file: "GCGR" | version | records(id, parent position, second parent position, commit time, generation)...
+ * records are only ever appended, and a commit is always recorded after its parents.
+ * a commit which isn't recorded yet (e.g. copied by push, or saved before its parents by fetch)
+ * is recorded from its commit file the first time it is looked up.
+ */
+public class CommitGraph {
+    public static final int NO_PARENT = -1;
+
+    private static final int MAGIC = 0x47434752; // "GCGR"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int ID_BYTES = UID_LENGTH / 2;
+    private static final int RECORD_SIZE = ID_BYTES + 4 + 4 + 8 + 4;
+
+    /**
+     * graphs already loaded in this command, .gitlet folder -> its graph
+     */
+    private static final HashMap<File, CommitGraph> GRAPHS = new HashMap<>();
+
+    /**
+     * forget the graphs loaded so far, so they are read again, e.g. after another process changed them
+     */
+    static void reset() {
+        GRAPHS.clear();
+    }
+
+    private final File gitletDir;
+    private final File graphFile;
+    private final HashMap<String, Integer> positions = new HashMap<>();
+    private byte[] ids = new byte[0];
+    private int[] parents = new int[0];
+    private int[] secondParents = new int[0];
+    private long[] commitTimes = new long[0];
+    private int[] generations = new int[0];
+    private int size = 0;
+    /**
+     * records appended in memory but not written to the graph file yet
+     */
+    private final ByteArrayOutputStream unsaved = new ByteArrayOutputStream();
+    private boolean rewrite = false;
+
+    private CommitGraph(File gitletDir) {
+        this.gitletDir = gitletDir;
+        this.graphFile = join(gitletDir, "commit-graph");
+        load();
+    }
+
+    private CommitGraph() {
+        this.gitletDir = null;
+        this.graphFile = null;
+    }
+
+    /**
+     * @return an empty graph which is never saved, for building synthetic histories in benchmarks
+     */
+    static CommitGraph inMemory() {
+        return new CommitGraph();
+    }
+
+    /**
+     * @param gitletDir the .gitlet folder of this or a remote repository
+     * @return the commit graph of the repository, loaded once per command
+     */
+    public static CommitGraph of(File gitletDir) {
+        File key = gitletDir.toPath().toAbsolutePath().normalize().toFile();
+        return GRAPHS.computeIfAbsent(key, CommitGraph::new);
+    }
+
+    private void load() {
+        if (!graphFile.exists()) {
+            rewrite = true;
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(readContents(graphFile));
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            rewrite = true;
+            return;
+        }
+        int count = buffer.remaining() / RECORD_SIZE; // a torn last record is ignored
+        ensureCapacity(count);
+        byte[] id = new byte[ID_BYTES];
+        for (int i = 0; i < count; i += 1) {
+            buffer.get(id);
+            record(bytesToId(id, 0), buffer.getInt(), buffer.getInt(), buffer.getLong(), buffer.getInt());
+        }
+        if (buffer.remaining() > 0) {
+            rewrite = true;
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= parents.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, parents.length * 2);
+        ids = Arrays.copyOf(ids, newCapacity * ID_BYTES);
+        parents = Arrays.copyOf(parents, newCapacity);
+        secondParents = Arrays.copyOf(secondParents, newCapacity);
+        commitTimes = Arrays.copyOf(commitTimes, newCapacity);
+        generations = Arrays.copyOf(generations, newCapacity);
+    }
+
+    private void record(String commitId, int parent, int secondParent, long commitTime, int generation) {
+        ensureCapacity(size + 1);
+        System.arraycopy(idToBytes(commitId), 0, ids, size * ID_BYTES, ID_BYTES);
+        parents[size] = parent;
+        secondParents[size] = secondParent;
+        commitTimes[size] = commitTime;
+        generations[size] = generation;
+        positions.put(commitId, size);
+        size += 1;
+    }
+
+    /**
+     * record the commit, whose parents must be recorded already
+     */
+    private void append(String commitId, Commit commit) {
+        int parent = commit.getParentId() == null ? NO_PARENT : positions.get(commit.getParentId());
+        int secondParent = commit.getSecondParentId() == null
+                ? NO_PARENT : positions.get(commit.getSecondParentId());
+        int generation = 1 + Math.max(parent == NO_PARENT ? 0 : generations[parent],
+                secondParent == NO_PARENT ? 0 : generations[secondParent]);
+        long commitTime = commit.getCommitTime().getTime();
+        record(commitId, parent, secondParent, commitTime, generation);
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE);
+        buffer.put(idToBytes(commitId)).putInt(parent).putInt(secondParent).putLong(commitTime).putInt(generation);
+        unsaved.writeBytes(buffer.array());
+    }
+
+    private void save() {
+        if (graphFile == null || (unsaved.size() == 0 && !rewrite)) {
+            return;
+        }
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(graphFile, !rewrite))) {
+            if (rewrite) {
+                ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + size * RECORD_SIZE);
+                buffer.putInt(MAGIC).putInt(VERSION);
+                for (int i = 0; i < size; i += 1) {
+                    buffer.put(ids, i * ID_BYTES, ID_BYTES).putInt(parents[i]).putInt(secondParents[i])
+                            .putLong(commitTimes[i]).putInt(generations[i]);
+                }
+                out.write(buffer.array());
+            } else {
+                unsaved.writeTo(out);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        unsaved.reset();
+        rewrite = false;
+    }
+
+    /**
+     * record a commit which has just been saved. if some parent isn't recorded yet,
+     * the commit is left to be recorded when it is first looked up
+     */
+    public void add(String commitId, Commit commit) {
+        if (positions.containsKey(commitId)
+                || (commit.getParentId() != null && !positions.containsKey(commit.getParentId()))
+                || (commit.getSecondParentId() != null && !positions.containsKey(commit.getSecondParentId()))) {
+            return;
+        }
+        append(commitId, commit);
+        save();
+    }
+
+    /**
+     * record a synthetic commit of an in-memory graph, whose parents must be recorded already
+     *
+     * @return the position of the new commit
+     */
+    int addSynthetic(String commitId, int parent, int secondParent, long commitTime) {
+        int generation = 1 + Math.max(parent == NO_PARENT ? 0 : generations[parent],
+                secondParent == NO_PARENT ? 0 : generations[secondParent]);
+        record(commitId, parent, secondParent, commitTime, generation);
+        return size - 1;
+    }
+
+    /**
+     * @return the position of the commit in the graph, recording it (and its unrecorded ancestors) if needed
+     */
+    public int positionOf(String commitId) {
+        Integer position = positions.get(commitId);
+        if (position != null) {
+            return position;
+        }
+        Deque<String> stack = new ArrayDeque<>();
+        HashMap<String, Commit> pending = new HashMap<>();
+        stack.push(commitId);
+        while (!stack.isEmpty()) {
+            String id = stack.peek();
+            if (positions.containsKey(id)) {
+                stack.pop();
+                continue;
+            }
+            Commit commit = pending.computeIfAbsent(id, k -> CommitUtils.readCommit(gitletDir, k));
+            boolean parentsRecorded = true;
+            for (String parentId : new String[]{commit.getParentId(), commit.getSecondParentId()}) {
+                if (parentId != null && !positions.containsKey(parentId)) {
+                    stack.push(parentId);
+                    parentsRecorded = false;
+                }
+            }
+            if (parentsRecorded) {
+                stack.pop();
+                append(id, commit);
+                pending.remove(id);
+            }
+        }
+        save();
+        return positions.get(commitId);
+    }
+
+    /**
+     * rebuild the graph file from every commit of the repository
+     */
+    public void rebuild(List<String> commitIds) {
+        positions.clear();
+        size = 0;
+        unsaved.reset();
+        rewrite = true;
+        for (String commitId : commitIds) {
+            positionOf(commitId);
+        }
+        save();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String idAt(int position) {
+        return bytesToId(ids, position * ID_BYTES);
+    }
+
+    public int parentOf(int position) {
+        return parents[position];
+    }
+
+    public int secondParentOf(int position) {
+        return secondParents[position];
+    }
+
+    public long commitTimeOf(int position) {
+        return commitTimes[position];
+    }
+
+    public int generationOf(int position) {
+        return generations[position];
+    }
+
+    /**
+     * @return the commit ids from the commit back to the initial commit, following first parents only
+     */
+    public List<String> firstParentHistory(String commitId) {
+        List<String> res = new ArrayList<>();
+        for (int p = positionOf(commitId); p != NO_PARENT; p = parents[p]) {
+            res.add(idAt(p));
+        }
+        return res;
+    }
+
+    /**
+     * @return positions of the commit and all its ancestors (through both parents)
+     */
+    public BitSet ancestors(String commitId) {
+        BitSet visited = new BitSet(size);
+        Deque<Integer> stack = new ArrayDeque<>();
+        stack.push(positionOf(commitId));
+        while (!stack.isEmpty()) {
+            int p = stack.pop();
+            if (p == NO_PARENT || visited.get(p)) {
+                continue;
+            }
+            visited.set(p);
+            stack.push(parents[p]);
+            stack.push(secondParents[p]);
+        }
+        return visited;
+    }
+
+    /**
+     * @return if the ancestor is reachable from the commit (a commit is its own ancestor).
+     * the walk never goes below the generation of the ancestor
+     */
+    public boolean isAncestor(String ancestorId, String commitId) {
+        int target = positionOf(ancestorId);
+        int targetGeneration = generations[target];
+        BitSet visited = new BitSet(size);
+        Deque<Integer> stack = new ArrayDeque<>();
+        stack.push(positionOf(commitId));
+        while (!stack.isEmpty()) {
+            int p = stack.pop();
+            if (p == NO_PARENT || visited.get(p) || generations[p] < targetGeneration) {
+                continue;
+            }
+            if (p == target) {
+                return true;
+            }
+            visited.set(p);
+            stack.push(parents[p]);
+            stack.push(secondParents[p]);
+        }
+        return false;
+    }
+}
@@ -0,0 +1,216 @@
+package gitlet;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import static gitlet.Utils.*;
+
+/**
+ * @description the sorted index of all commit ids of one repository, .gitlet/commit-ids,
+ * so an abbreviated commit id is resolved with a binary search instead of listing every commit.
+ * <p>
+ * file: "GCID" | version | fan-out table(256 cumulative counts by first id byte) | sorted ids | journal ids...
+ * new commits are appended to the journal at the end of the file, which is folded into the sorted ids
+ * once it holds JOURNAL_LIMIT ids. a missing or corrupted index is rebuilt from the commits.
+ */
+public class CommitIdIndex {
+    private static final int MAGIC = 0x47434944; // "GCID"
+    private static final int VERSION = 1;
+    private static final int FANOUT_SIZE = 256;
+    private static final int ID_BYTES = UID_LENGTH / 2;
+    private static final int HEADER_SIZE = 8 + FANOUT_SIZE * 4;
+    private static final int JOURNAL_LIMIT = 64;
+
+    /**
+     * indexes already loaded in this command, .gitlet folder -> its index
+     */
+    private static final HashMap<File, CommitIdIndex> INDEXES = new HashMap<>();
+
+    /**
+     * forget the indexes loaded so far, so they are read again, e.g. after another process changed them
+     */
+    static void reset() {
+        INDEXES.clear();
+    }
+
+    private final File gitletDir;
+    private final File indexFile;
+    private ByteBuffer sorted;
+    private int count;
+    private final TreeSet<String> journal = new TreeSet<>();
+
+    private CommitIdIndex(File gitletDir) {
+        this.gitletDir = gitletDir;
+        this.indexFile = join(gitletDir, "commit-ids");
+        load();
+    }
+
+    /**
+     * @param gitletDir the .gitlet folder of this or a remote repository
+     * @return the commit id index of the repository, loaded once per command
+     */
+    public static CommitIdIndex of(File gitletDir) {
+        File key = gitletDir.toPath().toAbsolutePath().normalize().toFile();
+        return INDEXES.computeIfAbsent(key, CommitIdIndex::new);
+    }
+
+    private void load() {
+        if (!indexFile.exists()) {
+            rebuild();
+            return;
+        }
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+                || buffer.limit() < HEADER_SIZE + (long) buffer.getInt(HEADER_SIZE - 4) * ID_BYTES) {
+            rebuild();
+            return;
+        }
+        sorted = buffer;
+        count = buffer.getInt(HEADER_SIZE - 4);
+        int journalStart = HEADER_SIZE + count * ID_BYTES;
+        int journalCount = (buffer.limit() - journalStart) / ID_BYTES; // a torn last id is ignored
+        byte[] id = new byte[ID_BYTES];
+        for (int i = 0; i < journalCount; i += 1) {
+            buffer.get(journalStart + i * ID_BYTES, id);
+            journal.add(bytesToId(id, 0));
+        }
+    }
+
+    /**
+     * rewrite the index from every commit, loose or packed
+     */
+    public void rebuild() {
+        TreeSet<String> commitIds = new TreeSet<>();
+        commitIds.addAll(ObjectPathUtils.listLooseIds(join(gitletDir, GitletConstants.COMMITS_DIR.getName())));
+        commitIds.addAll(PackUtils.listObjectIds(join(gitletDir, GitletConstants.PACKS_DIR.getName()),
+                PackUtils.OBJ_COMMIT));
+        write(commitIds);
+    }
+
+    private void write(SortedSet<String> commitIds) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + commitIds.size() * ID_BYTES);
+        buffer.putInt(MAGIC).putInt(VERSION);
+        int[] fanout = new int[FANOUT_SIZE];
+        for (String id : commitIds) {
+            fanout[Integer.parseInt(id.substring(0, 2), 16)] += 1;
+        }
+        int total = 0;
+        for (int bucket : fanout) {
+            total += bucket;
+            buffer.putInt(total);
+        }
+        for (String id : commitIds) {
+            buffer.put(idToBytes(id));
+        }
+        try {
+            File tempFile = File.createTempFile("tmp-", ".ids", gitletDir);
+            writeContents(tempFile, (Object) buffer.array());
+            Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        sorted = buffer;
+        count = commitIds.size();
+        journal.clear();
+    }
+
+    /**
+     * record a commit which has just been written to the repository
+     */
+    public void add(String commitId) {
+        if (contains(commitId)) {
+            return;
+        }
+        journal.add(commitId);
+        if (journal.size() >= JOURNAL_LIMIT) {
+            TreeSet<String> commitIds = new TreeSet<>(journal);
+            for (int i = 0; i < count; i += 1) {
+                commitIds.add(idAt(i));
+            }
+            write(commitIds);
+            return;
+        }
+        try (OutputStream out = new FileOutputStream(indexFile, true)) {
+            out.write(idToBytes(commitId));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    public boolean contains(String commitId) {
+        if (journal.contains(commitId)) {
+            return true;
+        }
+        int position = lowerBound(commitId);
+        return position < count && idAt(position).equals(commitId);
+    }
+
+    /**
+     * @return all commit ids starting with the prefix, in dictionary order
+     */
+    public List<String> findByPrefix(String prefix) {
+        List<String> res = new ArrayList<>();
+        String lower = prefix.toLowerCase(Locale.ROOT);
+        if (lower.isEmpty() || lower.length() > UID_LENGTH || !lower.matches("[0-9a-f]+")) {
+            return res;
+        }
+        for (int p = lowerBound(lower); p < count && idAt(p).startsWith(lower); p += 1) {
+            res.add(idAt(p));
+        }
+        for (String id : journal.tailSet(lower)) {
+            if (!id.startsWith(lower)) {
+                break;
+            }
+            res.add(id);
+        }
+        res.sort(String::compareTo);
+        return res;
+    }
+
+    /**
+     * @return the position of the first sorted id not less than the (possibly abbreviated) id
+     */
+    private int lowerBound(String id) {
+        byte[] key = idToBytes((id + "0".repeat(UID_LENGTH - id.length())));
+        int first = key[0] & 0xff;
+        int lo = first == 0 ? 0 : sorted.getInt(8 + (first - 1) * 4);
+        int hi = sorted.getInt(8 + first * 4);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareIdAt(mid, key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private int compareIdAt(int position, byte[] key) {
+        int base = HEADER_SIZE + position * ID_BYTES;
+        for (int i = 0; i < ID_BYTES; i += 1) {
+            int cmp = Integer.compare(sorted.get(base + i) & 0xff, key[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    private String idAt(int position) {
+        byte[] id = new byte[ID_BYTES];
+        sorted.get(HEADER_SIZE + position * ID_BYTES, id);
+        return bytesToId(id, 0);
+    }
+}
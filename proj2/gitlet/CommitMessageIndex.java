@@ -0,0 +1,328 @@
+package gitlet;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import static gitlet.Utils.*;
+
+/**
+ * @description the inverted index of commit messages of one repository, .gitlet/commit-messages,
+ * so find looks up a message instead of reading every commit.
+ * <p>
+ * file:   "GCMS" | version | record count | sorted records | journal records...
+ * record: key(8 bytes) | commit id(20 bytes), sorted by key then id
+ * <p>
+ * every commit has one record keyed by the hash of its whole message, and one for every distinct
+ * trigram(three consecutive chars) of it, so a substring of at least three chars is looked up
+ * by intersecting the commits of its trigrams. keys only narrow down the candidates,
+ * whose messages are always read to check them. like CommitIdIndex, new records are appended
+ * to the journal, which is merged into the sorted records once it holds JOURNAL_LIMIT records,
+ * and a missing or corrupted index is rebuilt from the commits.
+ */
+public class CommitMessageIndex {
+    private static final int MAGIC = 0x47434d53; // "GCMS"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    private static final int ID_BYTES = UID_LENGTH / 2;
+    private static final int RECORD_SIZE = 8 + ID_BYTES;
+    private static final int JOURNAL_LIMIT = 4096;
+    private static final long MESSAGE_KEY_MASK = -1L >>> 2;
+    private static final long TRIGRAM_KEY_FLAG = 1L << 62;
+
+    /**
+     * indexes already loaded in this command, .gitlet folder -> its index
+     */
+    private static final HashMap<File, CommitMessageIndex> INDEXES = new HashMap<>();
+
+    /**
+     * forget the indexes loaded so far, so they are read again, e.g. after another process changed them
+     */
+    static void reset() {
+        INDEXES.clear();
+    }
+
+    private final File gitletDir;
+    private final File indexFile;
+    private ByteBuffer sorted;
+    private int count;
+    /**
+     * journal records, key -> commit ids
+     */
+    private final TreeMap<Long, List<String>> journal = new TreeMap<>();
+    private int journalCount;
+
+    private CommitMessageIndex(File gitletDir) {
+        this.gitletDir = gitletDir;
+        this.indexFile = join(gitletDir, "commit-messages");
+        load();
+    }
+
+    /**
+     * @param gitletDir the .gitlet folder of this or a remote repository
+     * @return the message index of the repository, loaded once per command
+     */
+    public static CommitMessageIndex of(File gitletDir) {
+        File key = gitletDir.toPath().toAbsolutePath().normalize().toFile();
+        return INDEXES.computeIfAbsent(key, CommitMessageIndex::new);
+    }
+
+    private void load() {
+        if (!indexFile.exists()) {
+            rebuild();
+            return;
+        }
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+                || buffer.limit() < HEADER_SIZE + (long) buffer.getInt(8) * RECORD_SIZE) {
+            rebuild();
+            return;
+        }
+        sorted = buffer;
+        count = buffer.getInt(8);
+        int journalStart = HEADER_SIZE + count * RECORD_SIZE;
+        int records = (buffer.limit() - journalStart) / RECORD_SIZE; // a torn last record is ignored
+        for (int i = 0; i < records; i += 1) {
+            int position = journalStart + i * RECORD_SIZE;
+            journal.computeIfAbsent(buffer.getLong(position), k -> new ArrayList<>())
+                    .add(bytesToId(buffer, position + 8));
+        }
+        journalCount = records;
+    }
+
+    /**
+     * rewrite the index from the message of every commit, loose or packed
+     */
+    public void rebuild() {
+        List<String> commitIds = ObjectPathUtils.listLooseIds(join(gitletDir, GitletConstants.COMMITS_DIR.getName()));
+        commitIds.addAll(PackUtils.listObjectIds(join(gitletDir, GitletConstants.PACKS_DIR.getName()),
+                PackUtils.OBJ_COMMIT));
+        TreeMap<Long, List<String>> records = new TreeMap<>();
+        for (String commitId : commitIds) {
+            for (long key : keysOf(CommitUtils.readCommit(gitletDir, commitId).getMessage())) {
+                records.computeIfAbsent(key, k -> new ArrayList<>()).add(commitId);
+            }
+        }
+        sorted = ByteBuffer.allocate(HEADER_SIZE);
+        count = 0;
+        journal.clear();
+        write(records);
+    }
+
+    /**
+     * merge the records into the sorted ones and write them as a new index file without a journal
+     */
+    private void write(TreeMap<Long, List<String>> records) {
+        try {
+            File tempFile = File.createTempFile("tmp-", ".messages", gitletDir);
+            int total = count;
+            for (List<String> ids : records.values()) {
+                total += ids.size();
+            }
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(total);
+                int i = 0;
+                for (Map.Entry<Long, List<String>> entry : records.entrySet()) {
+                    List<String> ids = new ArrayList<>(entry.getValue());
+                    ids.sort(String::compareTo);
+                    for (String id : ids) {
+                        while (i < count && compareRecordAt(i, entry.getKey(), id) < 0) {
+                            out.write(recordAt(i));
+                            i += 1;
+                        }
+                        out.writeLong(entry.getKey());
+                        out.write(idToBytes(id));
+                    }
+                }
+                for (; i < count; i += 1) {
+                    out.write(recordAt(i));
+                }
+            }
+            Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        journal.clear();
+        load();
+    }
+
+    /**
+     * record the message of a commit which has just been written to the repository
+     */
+    public void add(String commitId, String message) {
+        if (findByKey(messageKey(message)).contains(commitId)) {
+            return;
+        }
+        long[] keys = keysOf(message);
+        if (journalCount + keys.length >= JOURNAL_LIMIT) {
+            TreeMap<Long, List<String>> records = new TreeMap<>(journal);
+            for (long key : keys) {
+                records.computeIfAbsent(key, k -> new ArrayList<>()).add(commitId);
+            }
+            write(records);
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(keys.length * RECORD_SIZE);
+        byte[] id = idToBytes(commitId);
+        for (long key : keys) {
+            buffer.putLong(key).put(id);
+            journal.computeIfAbsent(key, k -> new ArrayList<>()).add(commitId);
+        }
+        journalCount += keys.length;
+        try (OutputStream out = new FileOutputStream(indexFile, true)) {
+            out.write(buffer.array());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * @return ids of the commits whose message is exactly the message, in dictionary order
+     */
+    public List<String> findByMessage(String message) {
+        List<String> res = new ArrayList<>();
+        for (String commitId : findByKey(messageKey(message))) {
+            if (CommitUtils.readCommit(gitletDir, commitId).getMessage().equals(message)) {
+                res.add(commitId);
+            }
+        }
+        res.sort(String::compareTo);
+        return res;
+    }
+
+    /**
+     * @return ids of the commits whose message contains the text, in dictionary order.
+     * a text shorter than a trigram can't be looked up, so every commit is read for it
+     */
+    public List<String> findBySubstring(String text) {
+        Set<String> candidates = null;
+        if (text.length() < 3) {
+            candidates = new HashSet<>(ObjectPathUtils.listLooseIds(
+                    join(gitletDir, GitletConstants.COMMITS_DIR.getName())));
+            candidates.addAll(PackUtils.listObjectIds(join(gitletDir, GitletConstants.PACKS_DIR.getName()),
+                    PackUtils.OBJ_COMMIT));
+        } else {
+            // start from the rarest trigram, and only check the candidates against the others
+            List<Long> keys = new ArrayList<>(trigramKeys(text));
+            keys.sort(Comparator.comparingInt(this::countByKey));
+            candidates = findByKey(keys.get(0));
+            for (long key : keys.subList(1, keys.size())) {
+                candidates.removeIf(commitId -> !containsRecord(key, commitId));
+            }
+        }
+        List<String> res = new ArrayList<>();
+        for (String commitId : candidates) {
+            if (CommitUtils.readCommit(gitletDir, commitId).getMessage().contains(text)) {
+                res.add(commitId);
+            }
+        }
+        res.sort(String::compareTo);
+        return res;
+    }
+
+    private Set<String> findByKey(long key) {
+        Set<String> res = new HashSet<>(journal.getOrDefault(key, List.of()));
+        for (int p = lowerBound(key); p < count && sorted.getLong(HEADER_SIZE + p * RECORD_SIZE) == key; p += 1) {
+            res.add(bytesToId(sorted, HEADER_SIZE + p * RECORD_SIZE + 8));
+        }
+        return res;
+    }
+
+    private int countByKey(long key) {
+        return lowerBound(key + 1, null) - lowerBound(key) + journal.getOrDefault(key, List.of()).size();
+    }
+
+    private boolean containsRecord(long key, String commitId) {
+        if (journal.getOrDefault(key, List.of()).contains(commitId)) {
+            return true;
+        }
+        int position = lowerBound(key, commitId);
+        return position < count && compareRecordAt(position, key, commitId) == 0;
+    }
+
+    /**
+     * @return the position of the first sorted record whose key is not less than the key
+     */
+    private int lowerBound(long key) {
+        return lowerBound(key, null);
+    }
+
+    /**
+     * @return the position of the first sorted record not less than the key and the id, a null id is the least
+     */
+    private int lowerBound(long key, String commitId) {
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = Long.compare(sorted.getLong(HEADER_SIZE + mid * RECORD_SIZE), key);
+            if (cmp == 0 && commitId != null) {
+                cmp = bytesToId(sorted, HEADER_SIZE + mid * RECORD_SIZE + 8).compareTo(commitId);
+            }
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private int compareRecordAt(int position, long key, String id) {
+        int base = HEADER_SIZE + position * RECORD_SIZE;
+        int cmp = Long.compare(sorted.getLong(base), key);
+        return cmp != 0 ? cmp : bytesToId(sorted, base + 8).compareTo(id);
+    }
+
+    private byte[] recordAt(int position) {
+        byte[] record = new byte[RECORD_SIZE];
+        sorted.get(HEADER_SIZE + position * RECORD_SIZE, record);
+        return record;
+    }
+
+    private static String bytesToId(ByteBuffer buffer, int position) {
+        byte[] id = new byte[ID_BYTES];
+        buffer.get(position, id);
+        return Utils.bytesToId(id, 0);
+    }
+
+    /**
+     * @return the key of the whole message followed by the distinct keys of its trigrams
+     */
+    private static long[] keysOf(String message) {
+        Set<Long> trigramKeys = trigramKeys(message);
+        long[] keys = new long[1 + trigramKeys.size()];
+        keys[0] = messageKey(message);
+        int i = 1;
+        for (long key : trigramKeys) {
+            keys[i++] = key;
+        }
+        return keys;
+    }
+
+    private static long messageKey(String message) {
+        return Long.parseUnsignedLong(sha1(message).substring(0, 16), 16) & MESSAGE_KEY_MASK;
+    }
+
+    private static Set<Long> trigramKeys(String text) {
+        Set<Long> keys = new LinkedHashSet<>();
+        for (int i = 0; i + 3 <= text.length(); i += 1) {
+            keys.add(TRIGRAM_KEY_FLAG | (long) text.charAt(i) << 32 | (long) text.charAt(i + 1) << 16
+                    | text.charAt(i + 2));
+        }
+        return keys;
+    }
+}
@@ -4,12 +4,31 @@ import java.io.File;
 import java.util.*;
 
 import static gitlet.GitletConstants.COMMITS_DIR;
+import static gitlet.GitletConstants.GITLET_DIR;
+import static gitlet.GitletConstants.PACKS_DIR;
 import static gitlet.Utils.*;
 
 /**
  * @description class for manipulate commit
  */
 public class CommitUtils {
+    private static final int COMMIT_CACHE_SIZE = 1024;
+
+    /**
+     * commits already deserialized in this command, (gitletDir, id) -> commit, in access order.
+     * keyed by repository too, as a commit read from a remote loads its trees from that remote and
+     * may not exist in this one; callers must not modify a commit they have read
+     */
+    private static final LinkedHashMap<String, Commit> COMMIT_CACHE =
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Commit> eldest) {
+                    return size() > COMMIT_CACHE_SIZE;
+                }
+            };
+    private static int cacheHits = 0;
+    private static int cacheMisses = 0;
+
     /**
      * create an empty commit with no fileVersionMap
      * no parent sha1 id and no parent itself and a empty map
@@ -40,28 +59,62 @@ public class CommitUtils {
         commit.setMessage(message);
         commit.setCommitTime(new Date());
         commit.setParentId(parentId);
-        commit.setFileVersionMap(fileVersionMap == null ? new HashMap<>() : fileVersionMap);
+        commit.setFileVersionMap(fileVersionMap == null ? new HashMap<>() : new HashMap<>(fileVersionMap));
         return commit;
     }
 
     /**
-     * return the commit SHA1 value as its id
+     * return the commit SHA1 value as its id, the sha1 of its stored form
      */
     public static String getCommitId(Commit commit) {
-        return sha1(serialize(commit));
+        return commit.getId() != null ? commit.getId() : sha1(encodeCommit(commit));
+    }
+
+    /**
+     * @return the stored form of the commit, see CommitCodec. the tree of a new commit is written first
+     */
+    public static byte[] encodeCommit(Commit commit) {
+        if (commit.isSerialized()) {
+            return serialize(commit);
+        }
+        if (commit.getCodecVersion() != CommitCodec.FILES_VERSION && commit.getTreeId() == null) {
+            HashMap<String, String> fileVersionMap = commit.getFileVersionMap();
+            commit.setTree(GITLET_DIR, TreeUtils.writeTree(GITLET_DIR, fileVersionMap));
+            commit.setFileVersionMap(fileVersionMap);
+        }
+        return CommitCodec.encode(commit);
+    }
+
+    /**
+     * @param gitletDir the .gitlet folder the commit was read from
+     * @return the commit of a stored form, either encoded or java serialized
+     */
+    public static Commit decodeCommit(byte[] stored, File gitletDir) {
+        if (!CommitCodec.isSerialized(stored)) {
+            return CommitCodec.decode(stored, gitletDir);
+        }
+        Commit commit = deserialize(stored, Commit.class);
+        commit.setSerialized(true);
+        return commit;
     }
 
     /**
      * save the commit to .gitlet/commits,with file name[sha1],
-     * contents is the serializable string
+     * contents is the encoded commit
      *
      * @param commit the commit will be saved
      * @return commit id
      */
     public static String saveCommit(Commit commit) {
-        String commmitId = getCommitId(commit);
-        File commmitFile = join(COMMITS_DIR, commmitId);
-        writeObject(commmitFile, commit);
+        byte[] stored = encodeCommit(commit);
+        String commmitId = sha1(stored);
+        File commmitFile = ObjectPathUtils.newLooseFile(COMMITS_DIR, commmitId);
+        CompressUtils.writeObject(commmitFile, stored);
+        commit.setId(commmitId);
+        CommitGraph.of(GITLET_DIR).add(commmitId, commit);
+        CommitIdIndex.of(GITLET_DIR).add(commmitId);
+        CommitMessageIndex.of(GITLET_DIR).add(commmitId, commit.getMessage());
+        COMMIT_CACHE.put(cacheKey(GITLET_DIR, commmitId), commit);
         return commmitId;
     }
 
@@ -72,53 +125,89 @@ public class CommitUtils {
      * @return the commit
      */
     public static Commit readCommit(String commitId) {
-        if (commitId == null) {
-            return null;
-        }
-        return readObject(join(COMMITS_DIR, commitId), Commit.class);
+        return readCommit(GITLET_DIR, commitId);
     }
 
-    /***
-     * find correct commit bean with prefix of SHA-1
-     * @param prefix prefix sha-1 of the commit
-     * @warning this function as bugs, for example: prefix collisions
-     * @return if read failed, if no exception, it will return null
+    /**
+     * restore the commit from some .gitlet folder, loose or packed, compressed or not
+     *
+     * @param gitletDir the .gitlet folder of this or a remote repository
+     * @param commitId  SHA1 value
+     * @return the commit
      */
-    public static Commit readCommitByPrefix(String prefix) {
-        if (prefix == null) {
+    public static Commit readCommit(File gitletDir, String commitId) {
+        if (commitId == null) {
             return null;
         }
-        List<String> commitList = plainFilenamesIn(COMMITS_DIR);
-        int queryCount = 0;
-        String resultCommitId = null;
-        for (String commit : commitList) {
-            if (commit.startsWith(prefix)) {
-                queryCount += 1;
-                resultCommitId = commit;
-            }
+        Commit cached = COMMIT_CACHE.get(cacheKey(gitletDir, commitId));
+        if (cached != null) {
+            cacheHits += 1;
+            return cached;
         }
-        if (queryCount > 1) {
-            throw new RuntimeException("this prefix is ambiguous, you should use longer prefix");
+        cacheMisses += 1;
+        File commitFile = ObjectPathUtils.looseFile(join(gitletDir, COMMITS_DIR.getName()), commitId);
+        byte[] stored = commitFile.exists() ? CompressUtils.readObject(commitFile)
+                : PackUtils.readObject(join(gitletDir, PACKS_DIR.getName()), commitId);
+        if (stored == null) {
+            throw error("No commit with that id exists.");
         }
+        Commit commit = decodeCommit(stored, gitletDir);
+        commit.setId(commitId);
+        COMMIT_CACHE.put(cacheKey(gitletDir, commitId), commit);
+        return commit;
+    }
+
+    private static String cacheKey(File gitletDir, String commitId) {
+        return gitletDir.getAbsolutePath() + File.pathSeparator + commitId;
+    }
 
-        return readCommit(resultCommitId);
+    public static int getCacheHits() {
+        return cacheHits;
+    }
+
+    public static int getCacheMisses() {
+        return cacheMisses;
     }
 
     /**
-     * compare old  and new commit map, and write the new object file
+     * @return if the commit is stored, either loose in .gitlet/commits or in a pack
      */
-    public static void createObjectFile(Commit oldCommit, Commit newCommit, HashMap<String, String> stagedFiles) {
-        HashMap<String, String> oldFileVersionMap = oldCommit.getFileVersionMap();
-        HashMap<String, String> newFileVersionMap = newCommit.getFileVersionMap();
-        for (String fileName : newFileVersionMap.keySet()) {
-            if (oldFileVersionMap.containsKey(fileName)) {
-                if (!oldFileVersionMap.get(fileName).equals(newFileVersionMap.get(fileName))) {
-                    FileUtils.writeGitletObjectsFile(stagedFiles.get(newFileVersionMap.get(fileName)));
-                }
-            } else {
-                FileUtils.writeGitletObjectsFile(stagedFiles.get(newFileVersionMap.get(fileName)));
-            }
+    public static boolean hasCommit(String commitId) {
+        return ObjectPathUtils.looseFile(COMMITS_DIR, commitId).exists() || PackUtils.hasObject(PACKS_DIR, commitId);
+    }
+
+    /**
+     * @return if the commit is stored in some .gitlet folder, loose or packed
+     */
+    public static boolean hasCommit(File gitletDir, String commitId) {
+        return ObjectPathUtils.looseFile(join(gitletDir, COMMITS_DIR.getName()), commitId).exists()
+                || PackUtils.hasObject(join(gitletDir, PACKS_DIR.getName()), commitId);
+    }
+
+    /**
+     * @return ids of all commits, loose or packed, in dictionary order
+     */
+    public static List<String> getAllCommitIds() {
+        List<String> commitIds = ObjectPathUtils.listLooseIds(COMMITS_DIR);
+        commitIds.addAll(PackUtils.listObjectIds(PACKS_DIR, PackUtils.OBJ_COMMIT));
+        commitIds.sort(String::compareTo);
+        return commitIds;
+    }
+
+    /***
+     * find correct commit bean with prefix of SHA-1, a binary search in the commit id index
+     * @param prefix prefix sha-1 of the commit
+     * @return null if no commit has this prefix. an ambiguous prefix is a gitlet error listing the candidates
+     */
+    public static Commit readCommitByPrefix(String prefix) {
+        if (prefix == null) {
+            return null;
         }
+        List<String> candidates = CommitIdIndex.of(GITLET_DIR).findByPrefix(prefix);
+        if (candidates.size() > 1) {
+            throw error("Commit id %s is ambiguous, candidates are:%n%s", prefix, String.join("\n", candidates));
+        }
+        return candidates.isEmpty() ? null : readCommit(candidates.get(0));
     }
 
     public static boolean isTrackedByCommit(Commit commit, String fileName) {
@@ -141,78 +230,88 @@ public class CommitUtils {
      */
     public static List<Commit> commitTraceBack(Commit currentCommit) {
         List<Commit> commitList = new LinkedList<>();
-        Commit commit = currentCommit;
-        while (commit != null) {
-            commitList.add(commit);
-            commit = readCommit(commit.getParentId());
+        for (String commitId : commitIdTraceBack(getCommitId(currentCommit))) {
+            commitList.add(readCommit(commitId));
         }
         return commitList;
     }
 
     /**
-     * trace back to final commit with topo graph(dfs), return commit id list
+     * @return the commits from the commit back to the initial commit, following first parents,
+     * each read only when the iteration reaches it
      */
-    public static List<String> collectCommitsTopoOrder(
-            String headId, String stop // 远端已有 或 到 final
-    ) {
-        Set<String> seen = new HashSet<>();
-        Set<String> need = new HashSet<>();
-        Deque<String> stack = new ArrayDeque<>();
-        stack.push(headId);
-
-        while (!stack.isEmpty()) {
-            String commitId = stack.pop();
-            if (commitId == null || !seen.add(commitId) || stop.equals(commitId)) {
-                continue;
-            }
-            need.add(commitId);
-            Commit c = CommitUtils.readCommit(commitId);
-            if (c.getParentId() != null) {
-                stack.push(c.getParentId());
+    public static Iterator<Commit> firstParentIterator(String commitId) {
+        return firstParentIterator(GITLET_DIR, commitId);
+    }
+
+    /**
+     * @param gitletDir the .gitlet folder of this or a remote repository
+     */
+    public static Iterator<Commit> firstParentIterator(File gitletDir, String commitId) {
+        return new Iterator<>() {
+            private String nextId = commitId;
+
+            @Override
+            public boolean hasNext() {
+                return nextId != null;
             }
-            if (c.getSecondParentId() != null) {
-                stack.push(c.getSecondParentId());
+
+            @Override
+            public Commit next() {
+                if (nextId == null) {
+                    throw new NoSuchElementException();
+                }
+                Commit commit = readCommit(gitletDir, nextId);
+                nextId = commit.getParentId();
+                return commit;
             }
-        }
+        };
+    }
 
-        List<String> order = new ArrayList<>();
-        seen.clear();
-        for (String cid : need) {
-            dfsPost(cid, need, seen, order);
-        }
-        return order;
+    /**
+     * traceback to initial with the commit graph, return commit id list
+     */
+    public static List<String> commitIdTraceBack(String commitId) {
+        return CommitGraph.of(GITLET_DIR).firstParentHistory(commitId);
     }
 
-    private static void dfsPost(String commitId, Set<String> need, Set<String> seen, List<String> out) {
-        if (commitId == null || !need.contains(commitId) || !seen.add(commitId)) {
-            return;
+    /**
+     * collect the commits reachable from head but not from stop, parents before children
+     *
+     * @param stop the commit the other side already has, or null if it has nothing
+     */
+    public static List<String> collectCommitsTopoOrder(String headId, String stop) {
+        CommitGraph graph = CommitGraph.of(GITLET_DIR);
+        BitSet need = graph.ancestors(headId);
+        if (stop != null) {
+            need.andNot(graph.ancestors(stop));
+        }
+        List<Integer> positions = new ArrayList<>();
+        for (int p = need.nextSetBit(0); p >= 0; p = need.nextSetBit(p + 1)) {
+            positions.add(p);
         }
-        Commit c = CommitUtils.readCommit(commitId);
-        dfsPost(c.getParentId(), need, seen, out);
-        dfsPost(c.getSecondParentId(), need, seen, out);
-        out.add(commitId); // while recursion, the parentCommit add to out before children commit
+        // a parent always has a smaller generation than its children
+        positions.sort(Comparator.comparingInt(graph::generationOf));
+        List<String> order = new ArrayList<>();
+        for (int p : positions) {
+            order.add(graph.idAt(p));
+        }
+        return order;
     }
 
-
-    public static List<String> commitAncestors(Commit commit, Set<String> visitedSet) {
-        String parentId = commit.getParentId();
-        String secondParentId = commit.getSecondParentId();
-        visitedSet.add(getCommitId(commit));
+    /**
+     * @return ids of the commit and all its ancestors, walked with the commit graph
+     */
+    public static List<String> commitAncestors(String commitId) {
+        CommitGraph graph = CommitGraph.of(GITLET_DIR);
+        BitSet ancestors = graph.ancestors(commitId);
         List<String> result = new LinkedList<>();
-        result.add(getCommitId(commit));
-        if (parentId != null && !visited(visitedSet, parentId)) {
-            result.addAll(commitAncestors(readCommit(parentId), visitedSet));
-        }
-        if (secondParentId != null && !visited(visitedSet, secondParentId)) {
-            result.addAll(commitAncestors(readCommit(secondParentId), visitedSet));
+        for (int p = ancestors.nextSetBit(0); p >= 0; p = ancestors.nextSetBit(p + 1)) {
+            result.add(graph.idAt(p));
         }
         return result;
     }
 
-    private static boolean visited(Set<String> visitedSet, String commitId) {
-        return visitedSet.contains(commitId);
-    }
-
     /**
      * get the split point of two branches
      *
@@ -242,34 +341,16 @@ public class CommitUtils {
     }
 
     /**
-     * get the split point of two branches
+     * get the split point of two branches, the best merge base of their head commits.
+     * on a criss-cross history, the base with the largest generation, then the latest commit time, is chosen
      *
-     * @return if the two list has same length and has same commit list, then return null
+     * @return null if the two branches have no common ancestor
      */
     public static Commit getSplitCommitWithGraph(String branchName1, String branchName2) {
         String branch1CommitId = BranchUtils.getCommitId(branchName1);
         String branch2CommitId = BranchUtils.getCommitId(branchName2);
-        Commit commit1 = readCommit(branch1CommitId);
-        Commit commit2 = readCommit(branch2CommitId);
-        List<String> branch1AncestorsId = commitAncestors(commit1, new HashSet<>());
-        List<String> branch2AncestorsId = commitAncestors(commit2, new HashSet<>());
-        List<String> commonAncestors = new LinkedList<>();
-        for (String commitId : branch1AncestorsId) {
-            if (branch2AncestorsId.contains(commitId)) {
-                commonAncestors.add(commitId);
-            }
-        }
-
-        Commit splitCommit = null;
-
-        for (String commitId : commonAncestors) {
-            Commit c = readCommit(commitId);
-            if (splitCommit == null || c.getCommitTime().after(splitCommit.getCommitTime())) {
-                splitCommit = c;
-            }
-        }
-
-        return splitCommit;
+        String splitCommitId = MergeBaseUtils.mergeBase(CommitGraph.of(GITLET_DIR), branch1CommitId, branch2CommitId);
+        return splitCommitId == null ? null : readCommit(splitCommitId);
     }
 
     /**
@@ -0,0 +1,213 @@
+package gitlet;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import static gitlet.Utils.error;
+
+/**
+ * @description class for compressed object files.
+ * a compressed object is: MAGIC | uncompressed length | zlib stream of the stored form (see DeltaUtils).
+ * an object without MAGIC is an uncompressed one (legacy, or written with core.compression=0), and is read as it is.
+ * with core.compression=0 an object which itself starts with MAGIC still gets the header, so it isn't misread.
+ * the uncompressed length lets the reader inflate straight into one array of the exact size.
+ */
+public class CompressUtils {
+    private static final byte[] MAGIC = {0, 'G', 'Z', 'P'};
+    private static final int HEADER_SIZE = MAGIC.length + 8;
+    private static final int BUFFER_SIZE = GitletConstants.STREAM_BUFFER_SIZE;
+
+    private static boolean isCompressed(byte[] header, int length) {
+        return length >= MAGIC.length && Arrays.equals(header, 0, MAGIC.length, MAGIC, 0, MAGIC.length);
+    }
+
+    /**
+     * @return if the object file is compressed, reading only its header
+     */
+    public static boolean isCompressed(File file) {
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] header = in.readNBytes(MAGIC.length);
+            return isCompressed(header, header.length);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * @return the compression level set by core.compression, Deflater.DEFAULT_COMPRESSION if not set
+     */
+    public static int compressionLevel() {
+        String value = ConfigUtils.get(ConfigUtils.COMPRESSION_KEY);
+        return value == null ? Deflater.DEFAULT_COMPRESSION : parseLevel(value);
+    }
+
+    /**
+     * @return the compression level of a core.compression value, which must be an integer from -1 to 9
+     */
+    public static int parseLevel(String value) {
+        int level;
+        try {
+            level = Integer.parseInt(value.trim());
+        } catch (NumberFormatException excp) {
+            level = Integer.MIN_VALUE;
+        }
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw error("%s must be an integer from -1 to 9.", ConfigUtils.COMPRESSION_KEY);
+        }
+        return level;
+    }
+
+    /**
+     * write the stored form of an object to the file, compressed with the configured level
+     */
+    public static void writeObject(File file, byte[] stored) {
+        writeObject(file, new ByteArrayInputStream(stored), stored.length);
+    }
+
+    /**
+     * stream the stored form of an object from the input to the file, compressed with the configured level
+     *
+     * @param length the number of bytes which the input will provide
+     */
+    public static void writeObject(File file, InputStream in, long length) {
+        int level = compressionLevel();
+        try (OutputStream fileOut = new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE)) {
+            if (level == Deflater.NO_COMPRESSION) {
+                BufferedInputStream buffered = new BufferedInputStream(in, BUFFER_SIZE);
+                buffered.mark(MAGIC.length);
+                byte[] head = buffered.readNBytes(MAGIC.length);
+                buffered.reset();
+                if (!isCompressed(head, head.length)) {
+                    buffered.transferTo(fileOut);
+                    return;
+                }
+                in = buffered; // written with the header below, as a zlib stream of stored blocks
+            }
+            fileOut.write(MAGIC);
+            fileOut.write(ByteBuffer.allocate(8).putLong(length).array());
+            Deflater deflater = new Deflater(level);
+            try (DeflaterOutputStream out = new DeflaterOutputStream(fileOut, deflater, BUFFER_SIZE)) {
+                in.transferTo(out);
+            } finally {
+                deflater.end();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * read the stored form of an object file, inflating it if it is compressed.
+     * large files are mapped rather than read, so only the inflated copy lives on the heap
+     */
+    public static byte[] readObject(File file) {
+        if (file.length() < BUFFER_SIZE) {
+            return decode(ByteBuffer.wrap(Utils.readContents(file)));
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return decode(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * open a stream over the stored form of an object file, inflating on the fly if it is compressed
+     */
+    public static InputStream openObject(File file) {
+        try {
+            BufferedInputStream in = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+            in.mark(HEADER_SIZE);
+            byte[] header = in.readNBytes(HEADER_SIZE);
+            if (!isCompressed(header, header.length)) {
+                in.reset();
+                return in;
+            }
+            return new InflaterInputStream(in, new Inflater(), BUFFER_SIZE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * decode only the first bytes of the stored form of a pack entry, e.g. to look at a delta header
+     * without inflating the whole object
+     *
+     * @return at most length bytes, fewer if the stored form is shorter
+     */
+    public static byte[] decodeHead(ByteBuffer contents, int length) {
+        byte[] header = new byte[Math.min(HEADER_SIZE, contents.remaining())];
+        contents.duplicate().get(header);
+        if (!isCompressed(header, header.length)) {
+            byte[] head = new byte[Math.min(length, contents.remaining())];
+            contents.duplicate().get(head);
+            return head;
+        }
+        Inflater inflater = new Inflater();
+        try {
+            ByteBuffer input = contents.duplicate();
+            input.position(input.position() + HEADER_SIZE);
+            inflater.setInput(input);
+            byte[] head = new byte[length];
+            int position = 0;
+            while (position < length && !inflater.finished()) {
+                int inflated = inflater.inflate(head, position, length - position);
+                if (inflated == 0 && inflater.needsInput()) {
+                    throw error("Corrupted compressed object.");
+                }
+                position += inflated;
+            }
+            return Arrays.copyOf(head, position);
+        } catch (DataFormatException excp) {
+            throw error("Corrupted compressed object.");
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * decode the contents of an object file (or of a pack entry) to its stored form.
+     * a compressed object is inflated directly from the buffer into an array of the exact size.
+     */
+    public static byte[] decode(ByteBuffer contents) {
+        byte[] header = new byte[Math.min(HEADER_SIZE, contents.remaining())];
+        contents.duplicate().get(header);
+        if (!isCompressed(header, header.length)) {
+            byte[] stored = new byte[contents.remaining()];
+            contents.get(stored);
+            return stored;
+        }
+        long length = ByteBuffer.wrap(header, MAGIC.length, 8).getLong();
+        if (length > Integer.MAX_VALUE - 8) {
+            throw error("Object too large to be read at once.");
+        }
+        byte[] stored = new byte[(int) length];
+        Inflater inflater = new Inflater();
+        try {
+            ByteBuffer input = contents.duplicate();
+            input.position(input.position() + HEADER_SIZE);
+            inflater.setInput(input);
+            int position = 0;
+            while (position < stored.length) {
+                int inflated = inflater.inflate(stored, position, stored.length - position);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw error("Corrupted compressed object.");
+                }
+                position += inflated;
+            }
+            return stored;
+        } catch (DataFormatException excp) {
+            throw error("Corrupted compressed object.");
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package gitlet;
+
+import java.io.*;
+import java.util.Properties;
+
+import static gitlet.GitletConstants.CONFIG_FILE;
+
+/**
+ * @description class for the repository configuration, .gitlet/config, stored as java properties (key=value).
+ * known keys:
+ * core.compression  the Deflater level (-1 ~ 9) of written objects, 0 writes them uncompressed
+ * remote.transfer   how fetch and push copy objects: loose (the default), one file per object,
+ *                   or pack, one pack for all of them
+ */
+public class ConfigUtils {
+    public static final String COMPRESSION_KEY = "core.compression";
+    public static final String TRANSFER_KEY = "remote.transfer";
+
+    private static Properties config;
+
+    private static Properties getConfig() {
+        if (config == null) {
+            config = new Properties();
+            if (CONFIG_FILE.exists()) {
+                try (Reader reader = new FileReader(CONFIG_FILE)) {
+                    config.load(reader);
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+            }
+        }
+        return config;
+    }
+
+    /**
+     * forget the loaded configuration, so it is read again
+     */
+    static void reset() {
+        config = null;
+    }
+
+    public static String get(String key) {
+        return getConfig().getProperty(key);
+    }
+
+    /**
+     * set the key to the value, which must be a valid one for a known key
+     */
+    public static void set(String key, String value) {
+        checkValue(key, value);
+        getConfig().setProperty(key, value);
+        try (Writer writer = new FileWriter(CONFIG_FILE)) {
+            config.store(writer, null);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * config key: print the value of the key
+     * config key value: set the key to the value
+     */
+    public static void config(String... args) {
+        if (args.length == 0 || args.length > 2) {
+            System.out.println(GitletConstants.INCORRECT_OPERANDS_WARNING);
+            return;
+        }
+        if (args.length == 1) {
+            String value = get(args[0]);
+            if (value != null) {
+                System.out.println(value);
+            }
+            return;
+        }
+        set(args[0], args[1]);
+    }
+
+    private static void checkValue(String key, String value) {
+        if (key.equals(COMPRESSION_KEY)) {
+            CompressUtils.parseLevel(value);
+        } else if (key.equals(TRANSFER_KEY) && !value.equals("loose") && !value.equals("pack")) {
+            throw Utils.error("%s must be loose or pack.", TRANSFER_KEY);
+        }
+    }
+}
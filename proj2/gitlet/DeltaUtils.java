@@ -0,0 +1,264 @@
+package gitlet;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @description class for delta encoded blobs.
+ * a delta object stores a file version as copy/insert instructions against a base version,
+ * the base may be a delta itself, but the chain is never deeper than MAX_DELTA_DEPTH.
+ * <p>
+ * delta object: MAGIC | depth | base id(20 bytes) | target length | instructions...
+ * COPY:   0x01 | base offset | length
+ * INSERT: 0x02 | length | literal bytes
+ * <p>
+ * a depth of 0 marks a literal object, used for the rare full content which itself starts with MAGIC,
+ * or with the MAGIC of a chunked object, see ChunkUtils.
+ */
+public class DeltaUtils {
+    public static final int MAX_DELTA_DEPTH = 10;
+    /**
+     * the header of a literal object
+     */
+    public static final byte[] LITERAL_HEADER = {0, 'G', 'D', 'L', 0};
+
+    private static final byte[] MAGIC = {0, 'G', 'D', 'L'};
+    /**
+     * the stored form up to the base id, which is all gc looks at
+     */
+    public static final int BASE_HEADER_SIZE = MAGIC.length + 1 + Utils.UID_LENGTH / 2;
+    private static final int HEADER_SIZE = BASE_HEADER_SIZE + 4;
+    private static final byte COPY = 1;
+    private static final byte INSERT = 2;
+    /**
+     * bytes hashed per block, shorter matches are never worth a copy instruction
+     */
+    private static final int BLOCK_SIZE = 16;
+    private static final int HASH_MULTIPLIER = 31;
+    /**
+     * total size of rebuilt contents kept by the cache
+     */
+    private static final long CACHE_LIMIT = 64L << 20;
+
+    /**
+     * recently rebuilt contents, id -> full contents, in access order
+     */
+    private static final LinkedHashMap<String, byte[]> REBUILT_CACHE = new LinkedHashMap<>(16, 0.75f, true);
+    private static long cachedBytes = 0;
+
+    /**
+     * @return if the stored form (or at least its first bytes) is a delta or a literal object
+     */
+    public static boolean isDelta(byte[] stored) {
+        return stored.length >= MAGIC.length && Arrays.equals(stored, 0, MAGIC.length, MAGIC, 0, MAGIC.length);
+    }
+
+    /**
+     * @return the depth of the delta chain of a stored object, 0 if it is full contents
+     */
+    public static int depthOf(byte[] stored) {
+        return isDelta(stored) && stored.length > MAGIC.length ? stored[MAGIC.length] : 0;
+    }
+
+    /**
+     * @return the id of the base of a delta object, or null if the stored form (at least its first
+     * BASE_HEADER_SIZE bytes) is full contents
+     */
+    public static String baseIdOf(byte[] stored) {
+        return depthOf(stored) > 0 && stored.length >= BASE_HEADER_SIZE
+                ? Utils.bytesToId(stored, MAGIC.length + 1) : null;
+    }
+
+    /**
+     * @return the stored form of full contents which are not delta encoded nor chunked
+     */
+    public static byte[] literal(byte[] content) {
+        if (!isDelta(content) && !ChunkUtils.isChunked(content)) {
+            return content;
+        }
+        byte[] stored = new byte[LITERAL_HEADER.length + content.length];
+        System.arraycopy(LITERAL_HEADER, 0, stored, 0, LITERAL_HEADER.length);
+        System.arraycopy(content, 0, stored, LITERAL_HEADER.length, content.length);
+        return stored;
+    }
+
+    /**
+     * try to encode the contents as a delta against the base object
+     *
+     * @return the delta object, or null if the base is too deep or the delta doesn't save at least half
+     */
+    public static byte[] tryEncode(File gitletDir, String baseId, byte[] content) {
+        byte[] baseStored = FileUtils.readStoredObject(gitletDir, baseId);
+        if (baseStored == null || ChunkUtils.isChunked(baseStored) || depthOf(baseStored) >= MAX_DELTA_DEPTH) {
+            return null;
+        }
+        byte[] base = resolve(gitletDir, baseId, baseStored);
+        byte[] delta = encode(baseId, depthOf(baseStored) + 1, base, content);
+        return delta.length < content.length / 2 ? delta : null;
+    }
+
+    /**
+     * rebuild the full contents of a stored object, walking its delta chain if needed
+     */
+    public static byte[] resolve(File gitletDir, String id, byte[] stored) {
+        if (!isDelta(stored)) {
+            return stored;
+        }
+        if (depthOf(stored) == 0) {
+            return Arrays.copyOfRange(stored, MAGIC.length + 1, stored.length);
+        }
+        byte[] cached = REBUILT_CACHE.get(id);
+        if (cached != null) {
+            return cached;
+        }
+        String baseId = baseIdOf(stored);
+        byte[] base = REBUILT_CACHE.get(baseId);
+        if (base == null) {
+            base = FileUtils.readBlob(gitletDir, baseId);
+            cache(baseId, base);
+        }
+        byte[] content = apply(base, stored);
+        cache(id, content);
+        return content;
+    }
+
+    private static void cache(String id, byte[] content) {
+        if (content.length > CACHE_LIMIT / 4 || REBUILT_CACHE.containsKey(id)) {
+            return;
+        }
+        REBUILT_CACHE.put(id, content);
+        cachedBytes += content.length;
+        Iterator<Map.Entry<String, byte[]>> eldest = REBUILT_CACHE.entrySet().iterator();
+        while (cachedBytes > CACHE_LIMIT && eldest.hasNext()) {
+            cachedBytes -= eldest.next().getValue().length;
+            eldest.remove();
+        }
+    }
+
+    private static byte[] encode(String baseId, int depth, byte[] base, byte[] target) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.write(MAGIC);
+            out.writeByte(depth);
+            out.write(Utils.idToBytes(baseId));
+            out.writeInt(target.length);
+
+            int[] blocks = indexBlocks(base);
+            int mask = blocks.length - 1;
+            int insertStart = 0;
+            int i = 0;
+            int hash = target.length >= BLOCK_SIZE ? hashBlock(target, 0) : 0;
+            int outgoingFactor = power(HASH_MULTIPLIER, BLOCK_SIZE - 1);
+            while (i + BLOCK_SIZE <= target.length) {
+                int candidate = blocks[hash & mask] - 1;
+                if (candidate >= 0 && regionMatches(base, candidate, target, i, BLOCK_SIZE)) {
+                    int start = i;
+                    int baseStart = candidate;
+                    while (start > insertStart && baseStart > 0 && base[baseStart - 1] == target[start - 1]) {
+                        start -= 1;
+                        baseStart -= 1;
+                    }
+                    int end = i + BLOCK_SIZE;
+                    int baseEnd = candidate + BLOCK_SIZE;
+                    while (end < target.length && baseEnd < base.length && base[baseEnd] == target[end]) {
+                        end += 1;
+                        baseEnd += 1;
+                    }
+                    writeInsert(out, target, insertStart, start);
+                    out.writeByte(COPY);
+                    out.writeInt(baseStart);
+                    out.writeInt(end - start);
+                    i = end;
+                    insertStart = end;
+                    if (i + BLOCK_SIZE <= target.length) {
+                        hash = hashBlock(target, i);
+                    }
+                    continue;
+                }
+                if (i + BLOCK_SIZE < target.length) {
+                    hash = (hash - target[i] * outgoingFactor) * HASH_MULTIPLIER + target[i + BLOCK_SIZE];
+                }
+                i += 1;
+            }
+            writeInsert(out, target, insertStart, target.length);
+            out.close();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * a lossy hash table, block hash -> (offset of the first base block with that hash) + 1
+     */
+    private static int[] indexBlocks(byte[] base) {
+        int size = Integer.highestOneBit(Math.max(base.length / BLOCK_SIZE, 1) * 2);
+        int[] blocks = new int[size];
+        int mask = size - 1;
+        for (int offset = 0; offset + BLOCK_SIZE <= base.length; offset += BLOCK_SIZE) {
+            int slot = hashBlock(base, offset) & mask;
+            if (blocks[slot] == 0) {
+                blocks[slot] = offset + 1;
+            }
+        }
+        return blocks;
+    }
+
+    private static int hashBlock(byte[] bytes, int offset) {
+        int hash = 0;
+        for (int i = offset; i < offset + BLOCK_SIZE; i += 1) {
+            hash = hash * HASH_MULTIPLIER + bytes[i];
+        }
+        return hash;
+    }
+
+    private static int power(int base, int exponent) {
+        int result = 1;
+        for (int i = 0; i < exponent; i += 1) {
+            result *= base;
+        }
+        return result;
+    }
+
+    private static boolean regionMatches(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        return Arrays.equals(a, aOffset, aOffset + length, b, bOffset, bOffset + length);
+    }
+
+    private static void writeInsert(DataOutputStream out, byte[] target, int start, int end) throws IOException {
+        if (end > start) {
+            out.writeByte(INSERT);
+            out.writeInt(end - start);
+            out.write(target, start, end - start);
+        }
+    }
+
+    private static byte[] apply(byte[] base, byte[] delta) {
+        try (DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(delta, HEADER_SIZE - 4, delta.length - HEADER_SIZE + 4))) {
+            byte[] target = new byte[in.readInt()];
+            int position = 0;
+            while (position < target.length) {
+                byte instruction = in.readByte();
+                if (instruction == COPY) {
+                    int offset = in.readInt();
+                    int length = in.readInt();
+                    System.arraycopy(base, offset, target, position, length);
+                    position += length;
+                } else if (instruction == INSERT) {
+                    int length = in.readInt();
+                    in.readFully(target, position, length);
+                    position += length;
+                } else {
+                    throw Utils.error("Corrupted delta object.");
+                }
+            }
+            return target;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
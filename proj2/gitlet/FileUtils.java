@@ -1,19 +1,60 @@
 package gitlet;
 
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
 import java.util.HashMap;
 import java.util.List;
 
 import static gitlet.GitletConstants.CWD;
+import static gitlet.GitletConstants.GITLET_DIR;
 import static gitlet.GitletConstants.OBJECTS_DIR;
+import static gitlet.GitletConstants.PACKS_DIR;
+import static gitlet.GitletConstants.STREAM_BUFFER_SIZE;
 import static gitlet.Utils.*;
 
 public class FileUtils {
 
     /**
-     * get the sha1 of the file
+     * get the sha1 of the working file, see IndexUtils.workingFileSha1
      */
     public static String getFileContentSha1(String fileName) {
-        return sha1(readContentsAsString(join(CWD, fileName)));
+        return IndexUtils.workingFileSha1(fileName);
+    }
+
+    /**
+     * hash a file as a byte stream in fixed-size buffers, so it is never loaded at once
+     */
+    public static String hashFile(File file) {
+        try (DigestInputStream in = new DigestInputStream(new FileInputStream(file), sha1Digest())) {
+            byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+            while (in.read(buffer) != -1) {
+                continue;
+            }
+            return digestToId(in.getMessageDigest());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * copy a file with FileChannel.transferTo, creating or overwriting the target
+     */
+    public static void transferFile(File source, File target) {
+        try (FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.WRITE,
+                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = 0;
+            long size = in.size();
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
     }
 
     /**
@@ -24,30 +65,143 @@ public class FileUtils {
     }
 
     /**
-     * write the content to the .gitlet/objects/...(sha1/ content value)
+     * write the contents of the file to the .gitlet/objects/...(sha1/ content value),
+     * chunked if it is large (see ChunkUtils), as a delta against the base version if that saves space,
+     * otherwise streamed in fixed-size buffers
      *
-     * @param content the content of file as string
+     * @param source the file whose contents should be saved
+     * @param baseId the sha1 of an earlier version of the same file, or null
      * @return the sha1 of content
      */
-    public static String writeGitletObjectsFile(String content) {
-        String fileID = sha1(content);
-        writeContents(join(OBJECTS_DIR, fileID), content);
+    public static String writeGitletObjectsFile(File source, String baseId) {
+        return writeGitletObjectsFile(source, hashFile(source), baseId);
+    }
+
+    /**
+     * the same as writeGitletObjectsFile(source, baseId), for a source whose sha1 is already known
+     */
+    public static String writeGitletObjectsFile(File source, String fileID, String baseId) {
+        if (hasGitletObject(fileID)) {
+            return fileID;
+        }
+        File objectFile = ObjectPathUtils.newLooseFile(OBJECTS_DIR, fileID);
+        if (source.length() >= ChunkUtils.CHUNK_THRESHOLD) {
+            ChunkUtils.writeChunked(GITLET_DIR, source, objectFile);
+            return fileID;
+        }
+        if (baseId != null) {
+            byte[] delta = DeltaUtils.tryEncode(GITLET_DIR, baseId, readContents(source));
+            if (delta != null) {
+                CompressUtils.writeObject(objectFile, delta);
+                return fileID;
+            }
+        }
+        writeWholeObject(objectFile, source);
         return fileID;
     }
 
+    /**
+     * stream the contents of the source into a loose object which is stored whole
+     */
+    private static void writeWholeObject(File objectFile, File source) {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(source), STREAM_BUFFER_SIZE)) {
+            in.mark(DeltaUtils.LITERAL_HEADER.length);
+            byte[] head = in.readNBytes(DeltaUtils.LITERAL_HEADER.length);
+            in.reset();
+            if (DeltaUtils.isDelta(head) || ChunkUtils.isChunked(head)) {
+                InputStream literal = new SequenceInputStream(new ByteArrayInputStream(DeltaUtils.LITERAL_HEADER), in);
+                CompressUtils.writeObject(objectFile, literal, DeltaUtils.LITERAL_HEADER.length + source.length());
+            } else {
+                CompressUtils.writeObject(objectFile, in, source.length());
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * @return if the object is stored, either loose in .gitlet/objects or in a pack
+     */
+    public static boolean hasGitletObject(String fileSHA1) {
+        return ObjectPathUtils.looseFile(OBJECTS_DIR, fileSHA1).exists() || PackUtils.hasObject(PACKS_DIR, fileSHA1);
+    }
+
+    /**
+     * @return if the object is stored in some .gitlet folder, loose or packed
+     */
+    public static boolean hasObject(File gitletDir, String fileSHA1) {
+        return ObjectPathUtils.looseFile(join(gitletDir, OBJECTS_DIR.getName()), fileSHA1).exists()
+                || PackUtils.hasObject(join(gitletDir, PACKS_DIR.getName()), fileSHA1);
+    }
+
+    /**
+     * touch a loose object which is about to be referenced again, as gc keeps recently modified objects
+     * and everything they reach, see GcUtils
+     */
+    public static void freshenObject(String fileSHA1) {
+        ObjectPathUtils.looseFile(OBJECTS_DIR, fileSHA1).setLastModified(System.currentTimeMillis());
+    }
+
     /**
      * @param fileName the file which should be saved
      * @return the sha1 of content of the file
      */
     public static String createGitletObjectFile(String fileName) {
-        return writeGitletObjectsFile(readContentsAsString(join(CWD, fileName)));
+        return writeGitletObjectsFile(join(CWD, fileName), null);
     }
 
     /**
      * read contents of file of some version from .gitlet/objects
      */
     public static String getFileContent(String fileSHA1) {
-        return readContentsAsString(join(OBJECTS_DIR, fileSHA1));
+        return new String(readBlob(GITLET_DIR, fileSHA1), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * read an object as it is stored (maybe delta encoded) in some .gitlet folder, loose or packed
+     *
+     * @return the stored bytes, or null if the repository doesn't have the object
+     */
+    public static byte[] readStoredObject(File gitletDir, String fileSHA1) {
+        File objectFile = ObjectPathUtils.looseFile(join(gitletDir, OBJECTS_DIR.getName()), fileSHA1);
+        if (objectFile.exists()) {
+            return CompressUtils.readObject(objectFile);
+        }
+        return PackUtils.readObject(join(gitletDir, PACKS_DIR.getName()), fileSHA1);
+    }
+
+    /**
+     * read the first bytes of the stored form of an object in some .gitlet folder, enough to tell a delta
+     * from a chunked object or full contents, without inflating the rest
+     *
+     * @return at most length bytes, none if the repository doesn't have the object
+     */
+    public static byte[] readStoredHead(File gitletDir, String fileSHA1, int length) {
+        File objectFile = ObjectPathUtils.looseFile(join(gitletDir, OBJECTS_DIR.getName()), fileSHA1);
+        if (objectFile.exists()) {
+            try (InputStream in = CompressUtils.openObject(objectFile)) {
+                return in.readNBytes(length);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        ByteBuffer payload = PackUtils.findObject(join(gitletDir, PACKS_DIR.getName()), fileSHA1);
+        return payload == null ? new byte[0] : CompressUtils.decodeHead(payload, length);
+    }
+
+    /**
+     * read the full contents of a file version from some .gitlet folder, rebuilding delta chains
+     * and joining chunks
+     */
+    public static byte[] readBlob(File gitletDir, String fileSHA1) {
+        byte[] stored = readStoredObject(gitletDir, fileSHA1);
+        if (stored == null) {
+            throw error("No object with id %s exists.", fileSHA1);
+        }
+        if (ChunkUtils.isChunked(stored)) {
+            return ChunkUtils.readChunks(gitletDir, stored);
+        }
+        return DeltaUtils.resolve(gitletDir, fileSHA1, stored);
     }
 
     public static String getFileContent(String fileName, Commit commit) {
@@ -60,7 +214,126 @@ public class FileUtils {
     }
 
     /**
-     * restor all files tracked by the commit to CWD
+     * write the file version to the CWD file, see copyBlobTo
+     */
+    public static void checkoutCWDFile(String fileName, String fileSHA1) {
+        copyBlobTo(GITLET_DIR, fileSHA1, join(CWD, fileName));
+        IndexUtils.recordStat(fileName, fileSHA1);
+    }
+
+    /**
+     * write the full contents of a file version from some .gitlet folder to the target file, see writeBlobTo.
+     * a loose object stored whole and uncompressed is transferred byte for byte
+     */
+    public static void copyBlobTo(File gitletDir, String fileSHA1, File target) {
+        File objectFile = ObjectPathUtils.looseFile(join(gitletDir, OBJECTS_DIR.getName()), fileSHA1);
+        if (objectFile.exists() && !CompressUtils.isCompressed(objectFile)) {
+            byte[] head = readHead(objectFile);
+            if (!DeltaUtils.isDelta(head) && !ChunkUtils.isChunked(head)) {
+                transferFile(objectFile, target);
+                return;
+            }
+        }
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(target), STREAM_BUFFER_SIZE)) {
+            writeBlobTo(gitletDir, fileSHA1, out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * write the full contents of a file version from some .gitlet folder to the stream.
+     * a loose object stored whole is streamed and a chunked one chunk by chunk,
+     * only deltas and packed objects are rebuilt in memory
+     */
+    public static void writeBlobTo(File gitletDir, String fileSHA1, OutputStream out) throws IOException {
+        File objectFile = ObjectPathUtils.looseFile(join(gitletDir, OBJECTS_DIR.getName()), fileSHA1);
+        if (objectFile.exists()) {
+            try (InputStream in = CompressUtils.openObject(objectFile)) {
+                byte[] head = in.readNBytes(DeltaUtils.LITERAL_HEADER.length);
+                if (ChunkUtils.isChunked(head)) {
+                    ByteArrayOutputStream chunked = new ByteArrayOutputStream();
+                    chunked.write(head);
+                    in.transferTo(chunked);
+                    ChunkUtils.writeChunksTo(gitletDir, chunked.toByteArray(), out);
+                    return;
+                }
+                if (!DeltaUtils.isDelta(head) || DeltaUtils.depthOf(head) == 0) {
+                    if (!DeltaUtils.isDelta(head)) {
+                        out.write(head);
+                    }
+                    in.transferTo(out);
+                    return;
+                }
+            }
+        }
+        byte[] stored = readStoredObject(gitletDir, fileSHA1);
+        if (stored == null) {
+            throw error("No object with id %s exists.", fileSHA1);
+        }
+        if (ChunkUtils.isChunked(stored)) {
+            ChunkUtils.writeChunksTo(gitletDir, stored, out);
+            return;
+        }
+        out.write(DeltaUtils.resolve(gitletDir, fileSHA1, stored));
+    }
+
+    /**
+     * copy an object from one .gitlet folder to another as a loose object, unless the target already has it.
+     * an object stored whole is copied byte for byte with FileChannel.transferTo, anything else is rebuilt.
+     * the chunks of a chunked object are copied the same way before it, so the target only gets the new ones
+     *
+     * @param stats counts the objects written to the target, chunks included
+     */
+    public static void copyObject(File fromGitletDir, String fileSHA1, File toGitletDir, TransferStats stats) {
+        if (hasObject(toGitletDir, fileSHA1)) {
+            return;
+        }
+        File targetDir = join(toGitletDir, OBJECTS_DIR.getName());
+        File target = ObjectPathUtils.newLooseFile(targetDir, fileSHA1);
+        File source = ObjectPathUtils.looseFile(join(fromGitletDir, OBJECTS_DIR.getName()), fileSHA1);
+        if (source.exists()) {
+            byte[] head;
+            try (InputStream in = CompressUtils.openObject(source)) {
+                head = in.readNBytes(DeltaUtils.LITERAL_HEADER.length);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            if (ChunkUtils.isChunked(head)) {
+                copyChunks(fromGitletDir, CompressUtils.readObject(source), toGitletDir, stats);
+                transferFile(source, target);
+            } else if (!DeltaUtils.isDelta(head) || DeltaUtils.depthOf(head) == 0) {
+                transferFile(source, target);
+            }
+        }
+        if (!target.exists()) {
+            byte[] stored = readStoredObject(fromGitletDir, fileSHA1);
+            if (stored != null && ChunkUtils.isChunked(stored)) {
+                copyChunks(fromGitletDir, stored, toGitletDir, stats);
+                CompressUtils.writeObject(target, stored);
+            } else {
+                CompressUtils.writeObject(target, DeltaUtils.literal(readBlob(fromGitletDir, fileSHA1)));
+            }
+        }
+        stats.addObject(target);
+    }
+
+    private static void copyChunks(File fromGitletDir, byte[] chunked, File toGitletDir, TransferStats stats) {
+        for (String chunkId : ChunkUtils.chunkIds(chunked)) {
+            copyObject(fromGitletDir, chunkId, toGitletDir, stats);
+        }
+    }
+
+    private static byte[] readHead(File file) {
+        try (InputStream in = new FileInputStream(file)) {
+            return in.readNBytes(DeltaUtils.LITERAL_HEADER.length);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * restor all files tracked by the commit to CWD, skipping files whose stat says they are that version already
      */
     public static void restoreCommitFiles(Commit commit) {
         HashMap<String, String> fileVersionMap = commit.getFileVersionMap();
@@ -72,13 +345,14 @@ public class FileUtils {
             }
         }
         for (String fileName : fileVersionMap.keySet()) {
-            writeCWDFile(fileName, getFileContent(fileVersionMap.get(fileName)));
+            if (!IndexUtils.workingFileMatches(fileName, fileVersionMap.get(fileName))) {
+                checkoutCWDFile(fileName, fileVersionMap.get(fileName));
+            }
         }
     }
 
     public static boolean isOverwritingOrDeletingCWDUntracked(String fileName, Commit currentCommit) {
-        List<String> cwdFileNames = plainFilenamesIn(CWD);
-        assert cwdFileNames != null && currentCommit != null;
-        return !CommitUtils.isTrackedByCommit(currentCommit, fileName) && cwdFileNames.contains(fileName);
+        assert currentCommit != null;
+        return !CommitUtils.isTrackedByCommit(currentCommit, fileName) && join(CWD, fileName).isFile();
     }
 }
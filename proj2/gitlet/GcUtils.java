@@ -0,0 +1,287 @@
+package gitlet;
+
+import java.util.*;
+
+import static gitlet.GitletConstants.*;
+import static gitlet.Utils.*;
+
+/**
+ * @description garbage collection: gc [--prune days|now] [--repack]
+ * <p>
+ * marks every commit, tree and blob reachable from the branches (remote branches included) and the index,
+ * following parents, trees, delta bases and the chunks of chunked blobs, then deletes the loose commits
+ * and objects which are not marked. unreachable objects younger than the grace period (14 days, or as
+ * --prune says) are kept, and so is everything they reach, as another command may be about to use them.
+ * --repack writes the marked objects, loose or packed, into one new pack and drops every old one,
+ * which is the only way unreachable packed objects go.
+ * <p>
+ * marks are bits over a sorted table of every object id, 20 bytes each, so a repository of millions
+ * of objects is marked without a String or a set entry per object.
+ */
+public class GcUtils {
+    private static final long DEFAULT_PRUNE_DAYS = 14;
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+    private static final int ID_BYTES = UID_LENGTH / 2;
+
+    /**
+     * every object id of the repository, commits and objects, sorted in one array
+     */
+    private static class ObjectTable {
+        private final byte[] ids;
+        private final int count;
+        private final BitSet commits = new BitSet();
+        private final BitSet marked = new BitSet();
+
+        ObjectTable(List<String> commitIds, List<String> objectIds) {
+            List<String> all = new ArrayList<>(commitIds.size() + objectIds.size());
+            all.addAll(commitIds);
+            all.addAll(objectIds);
+            all.sort(String::compareTo);
+            byte[] sorted = new byte[all.size() * ID_BYTES];
+            int n = 0;
+            for (int i = 0; i < all.size(); i += 1) {
+                if (i == 0 || !all.get(i).equals(all.get(i - 1))) {
+                    System.arraycopy(idToBytes(all.get(i)), 0, sorted, n * ID_BYTES, ID_BYTES);
+                    n += 1;
+                }
+            }
+            ids = sorted;
+            count = n;
+            for (String commitId : commitIds) {
+                commits.set(positionOf(commitId));
+            }
+        }
+
+        /**
+         * @return the position of the id, or -1 if the repository doesn't have it
+         */
+        int positionOf(String id) {
+            byte[] key = idToBytes(id);
+            int lo = 0;
+            int hi = count - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int cmp = Arrays.compareUnsigned(ids, mid * ID_BYTES, (mid + 1) * ID_BYTES, key, 0, ID_BYTES);
+                if (cmp == 0) {
+                    return mid;
+                } else if (cmp < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return -1;
+        }
+
+        String idAt(int position) {
+            return bytesToId(ids, position * ID_BYTES);
+        }
+    }
+
+    /**
+     * the marking walk, one work list per kind of object
+     */
+    private static class Marker {
+        private final ObjectTable table;
+        private final Deque<Integer> commitQueue = new ArrayDeque<>();
+        private final Deque<Integer> treeQueue = new ArrayDeque<>();
+        private final Deque<Integer> blobQueue = new ArrayDeque<>();
+        /**
+         * objects whose kind isn't known, e.g. recent loose ones, which are trees or blobs
+         */
+        private final Deque<Integer> objectQueue = new ArrayDeque<>();
+
+        Marker(ObjectTable table) {
+            this.table = table;
+        }
+
+        void mark(String id, Deque<Integer> queue) {
+            int position = id == null ? -1 : table.positionOf(id);
+            if (position >= 0 && !table.marked.get(position)) {
+                table.marked.set(position);
+                queue.push(position);
+            }
+        }
+
+        void markCommit(String id) {
+            mark(id, commitQueue);
+        }
+
+        void markTree(String id) {
+            mark(id, treeQueue);
+        }
+
+        void markBlob(String id) {
+            mark(id, blobQueue);
+        }
+
+        void markObject(String id) {
+            mark(id, objectQueue);
+        }
+
+        void walk() {
+            while (!commitQueue.isEmpty() || !treeQueue.isEmpty() || !blobQueue.isEmpty()
+                    || !objectQueue.isEmpty()) {
+                if (!commitQueue.isEmpty()) {
+                    Commit commit = CommitUtils.readCommit(GITLET_DIR, table.idAt(commitQueue.pop()));
+                    markCommit(commit.getParentId());
+                    markCommit(commit.getSecondParentId());
+                    if (commit.getTreeId() != null) {
+                        markTree(commit.getTreeId());
+                    } else {
+                        commit.getFileVersionMap().values().forEach(this::markBlob);
+                    }
+                } else if (!treeQueue.isEmpty()) {
+                    walkTree(table.idAt(treeQueue.pop()));
+                } else if (!blobQueue.isEmpty()) {
+                    String id = table.idAt(blobQueue.pop());
+                    walkBlob(id, storedHead(id));
+                } else {
+                    String id = table.idAt(objectQueue.pop());
+                    byte[] head = storedHead(id);
+                    if (TreeUtils.isTree(head)) {
+                        walkTree(id);
+                    } else {
+                        walkBlob(id, head);
+                    }
+                }
+            }
+        }
+
+        private void walkTree(String treeId) {
+            List<String> fileIds = new ArrayList<>();
+            List<String> subtreeIds = new ArrayList<>();
+            TreeUtils.listChildren(GITLET_DIR, treeId, fileIds, subtreeIds);
+            fileIds.forEach(this::markBlob);
+            subtreeIds.forEach(this::markTree);
+        }
+
+        private void walkBlob(String id, byte[] head) {
+            if (ChunkUtils.isChunked(head)) {
+                ChunkUtils.chunkIds(FileUtils.readStoredObject(GITLET_DIR, id)).forEach(this::markBlob);
+            } else {
+                markBlob(DeltaUtils.baseIdOf(head));
+            }
+        }
+    }
+
+    public static void gc(String[] args) {
+        long pruneDays = DEFAULT_PRUNE_DAYS;
+        boolean repack = false;
+        for (int i = 0; i < args.length; i += 1) {
+            if (args[i].equals("--repack")) {
+                repack = true;
+            } else if (args[i].equals("--prune") && i + 1 < args.length) {
+                i += 1;
+                try {
+                    pruneDays = args[i].equals("now") ? 0 : Long.parseLong(args[i]);
+                } catch (NumberFormatException excp) {
+                    pruneDays = -1;
+                }
+                if (pruneDays < 0) {
+                    System.out.println(INCORRECT_OPERANDS_WARNING);
+                    return;
+                }
+            } else {
+                System.out.println(INCORRECT_OPERANDS_WARNING);
+                return;
+            }
+        }
+        gc(System.currentTimeMillis() - pruneDays * DAY_MILLIS, repack);
+    }
+
+    /**
+     * @param expire unreachable loose objects modified before this time are deleted
+     */
+    private static void gc(long expire, boolean repack) {
+        long start = System.nanoTime();
+        List<String> looseCommitIds = ObjectPathUtils.listLooseIds(COMMITS_DIR);
+        List<String> looseObjectIds = ObjectPathUtils.listLooseIds(OBJECTS_DIR);
+        List<String> commitIds = new ArrayList<>(looseCommitIds);
+        commitIds.addAll(PackUtils.listObjectIds(PACKS_DIR, PackUtils.OBJ_COMMIT));
+        List<String> objectIds = new ArrayList<>(looseObjectIds);
+        objectIds.addAll(PackUtils.listObjectIds(PACKS_DIR, PackUtils.OBJ_BLOB));
+        ObjectTable table = new ObjectTable(commitIds, objectIds);
+        commitIds = null; // only the table is kept while marking
+        objectIds = null;
+
+        Marker marker = new Marker(table);
+        for (String branchName : BranchUtils.getAllBranchName()) {
+            marker.markCommit(BranchUtils.getCommitId(branchName));
+        }
+        IndexUtils.getIndexMap().values().forEach(marker::markBlob);
+        marker.markTree(IndexUtils.getIndexTreeId());
+        // recent objects may belong to a command still running, keep what they reach too
+        for (String commitId : looseCommitIds) {
+            if (ObjectPathUtils.looseFile(COMMITS_DIR, commitId).lastModified() >= expire) {
+                marker.markCommit(commitId);
+            }
+        }
+        for (String objectId : looseObjectIds) {
+            if (ObjectPathUtils.looseFile(OBJECTS_DIR, objectId).lastModified() >= expire) {
+                marker.markObject(objectId);
+            }
+        }
+        PackUtils.listObjectIds(PACKS_DIR, PackUtils.OBJ_COMMIT, expire).forEach(marker::markCommit);
+        PackUtils.listObjectIds(PACKS_DIR, PackUtils.OBJ_BLOB, expire).forEach(marker::markObject);
+        marker.walk();
+
+        int removed = 0;
+        boolean commitsRemoved = false;
+        for (String commitId : looseCommitIds) {
+            if (!table.marked.get(table.positionOf(commitId))) {
+                ObjectPathUtils.deleteLooseFile(ObjectPathUtils.looseFile(COMMITS_DIR, commitId));
+                removed += 1;
+                commitsRemoved = true;
+            }
+        }
+        for (String objectId : looseObjectIds) {
+            if (!table.marked.get(table.positionOf(objectId))) {
+                ObjectPathUtils.deleteLooseFile(ObjectPathUtils.looseFile(OBJECTS_DIR, objectId));
+                removed += 1;
+            }
+        }
+        int unreachable = table.count - table.marked.cardinality();
+        int packedUnreachable = unreachable - removed;
+        if (repack) {
+            List<String> keptCommitIds = new ArrayList<>();
+            List<String> keptObjectIds = new ArrayList<>();
+            for (int p = table.marked.nextSetBit(0); p >= 0; p = table.marked.nextSetBit(p + 1)) {
+                (table.commits.get(p) ? keptCommitIds : keptObjectIds).add(table.idAt(p));
+            }
+            PackUtils.rewritePacks(keptCommitIds, keptObjectIds);
+            BitSet droppedCommits = (BitSet) table.commits.clone();
+            droppedCommits.andNot(table.marked);
+            commitsRemoved = !droppedCommits.isEmpty();
+            removed = unreachable;
+            packedUnreachable = 0;
+        }
+        if (commitsRemoved) {
+            List<String> remaining = CommitUtils.getAllCommitIds();
+            CommitGraph.of(GITLET_DIR).rebuild(remaining);
+            CommitIdIndex.of(GITLET_DIR).rebuild();
+            CommitMessageIndex.of(GITLET_DIR).rebuild();
+        }
+        // trees kept in memory double as "already stored", and some of them may be gone now
+        TreeUtils.reset();
+        PackUtils.reset();
+
+        String summary = String.format("Removed %d of %d objects, %d reachable.", removed, table.count,
+                table.marked.cardinality());
+        if (packedUnreachable > 0) {
+            summary += String.format(" %d unreachable packed objects are kept until gc --repack.", packedUnreachable);
+        }
+        writeContents(GC_LOG_FILE, summary + "\n");
+        System.out.println(summary);
+        if (TRACE) {
+            System.err.printf("gc: %.1f ms%n", (System.nanoTime() - start) / 1e6);
+        }
+    }
+
+    /**
+     * @return the first bytes of the stored form of an object, enough for a delta header
+     */
+    private static byte[] storedHead(String id) {
+        return FileUtils.readStoredHead(GITLET_DIR, id, DeltaUtils.BASE_HEADER_SIZE);
+    }
+}
@@ -0,0 +1,62 @@
+package gitlet;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+
+/**
+ * @description the thin client of GitletDaemon: java gitlet.GitletClient [command] [operands].
+ * it sends the arguments to the daemon of the repository in the current directory, copies what the command
+ * prints to stdout and stderr, and exits with the exit status of the command.
+ * without a running daemon the command runs in this JVM, as gitlet.Main would.
+ * it touches no repository state itself, so it starts about as fast as an empty JVM.
+ */
+public class GitletClient {
+    /**
+     * what forward returns if there is no daemon
+     */
+    static final int NO_DAEMON = -1;
+
+    public static void main(String[] args) {
+        int status = forward(args);
+        if (status == NO_DAEMON) {
+            Main.main(args);
+            return;
+        }
+        System.exit(status);
+    }
+
+    /**
+     * send the command to the daemon, and copy what it prints to stdout and stderr
+     *
+     * @return the exit status of the command, or NO_DAEMON if no daemon is listening in the current directory
+     */
+    static int forward(String[] args) {
+        if (!Files.exists(GitletDaemon.SOCKET_PATH)) {
+            return NO_DAEMON;
+        }
+        try (SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            try {
+                channel.connect(UnixDomainSocketAddress.of(GitletDaemon.SOCKET_PATH));
+            } catch (IOException excp) {
+                return NO_DAEMON; // left behind by a daemon which didn't stop cleanly
+            }
+            channel.write(GitletDaemon.encodeRequest(args));
+            DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+            for (byte tag = in.readByte(); tag != GitletDaemon.EXIT; tag = in.readByte()) {
+                byte[] output = new byte[in.readInt()];
+                in.readFully(output);
+                (tag == GitletDaemon.STDERR ? System.err : System.out).write(output);
+            }
+            System.out.flush();
+            System.err.flush();
+            return in.readInt();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
@@ -18,6 +18,10 @@ public class GitletConstants {
      * the index file
      */
     public static final File INDEX_FILE = join(GITLET_DIR, "index");
+    /**
+     * the journal of changes appended to the index since it was last rewritten, see IndexFile
+     */
+    public static final File INDEX_JOURNAL_FILE = join(GITLET_DIR, "index-journal");
     /**
      * store a map, remote name -> location(path)
      */
@@ -38,9 +42,30 @@ public class GitletConstants {
      * the object directory, store explicit files in it
      */
     public static final File OBJECTS_DIR = join(GITLET_DIR, "objects");
+    /**
+     * the packs directory, store packfiles and their indexes, see PackUtils
+     */
+    public static final File PACKS_DIR = join(GITLET_DIR, "packs");
+    /**
+     * the config file, see ConfigUtils
+     */
+    public static final File CONFIG_FILE = join(GITLET_DIR, "config");
+    /**
+     * what the last gc removed, rewritten by every gc, see GcUtils
+     */
+    public static final File GC_LOG_FILE = join(GITLET_DIR, "gc.log");
     public static final File BRANCHES_DIR = join(GITLET_DIR, "branches");
     public static final File STAGED_FILE = join(GITLET_DIR, "staged_files");
 
+    /**
+     * the buffer size for files which are streamed rather than read at once
+     */
+    public static final int STREAM_BUFFER_SIZE = 1 << 16;
+    /**
+     * if the environment variable GITLET_TRACE is set, timings and counters are reported to stderr
+     */
+    public static final boolean TRACE = System.getenv("GITLET_TRACE") != null;
+
     public static final String UNINITIALIZED_WARNING = "Not in an initialized Gitlet directory.";
     public static final String INCORRECT_OPERANDS_WARNING = "Incorrect operands";
 
@@ -0,0 +1,232 @@
+package gitlet;
+
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+import static gitlet.GitletConstants.*;
+
+/**
+ * @description a long-running gitlet process for one repository, started by "gitlet daemon" in its root.
+ * it listens on the unix domain socket .gitlet/daemon.sock and runs the commands sent by GitletClient
+ * one at a time in the same JVM, so the index, HEAD, the commit graph and the caches stay loaded between them.
+ * <p>
+ * request:  argument count(int) | arguments(int length and utf-8 bytes)...
+ * response: frames(STDOUT or STDERR | int length | bytes)... in the order the command prints them,
+ *           then EXIT | int exit status, which is 1 if the command threw, as java gitlet.Main would exit
+ * <p>
+ * before every command the files the loaded state came from are compared with their stat
+ * (mtime, size and file key) after the previous command. if another process has changed any of them,
+ * everything loaded is dropped and read again on next use, and so is an index left with unsaved changes
+ * after a command.
+ * remote commands always start and end with fresh state, since the other repository may be changed by anyone.
+ * "gitlet daemon stop" stops a running daemon.
+ */
+public class GitletDaemon {
+    static final Path SOCKET_PATH = Path.of(".gitlet", "daemon.sock");
+    private static final Set<String> REMOTE_COMMANDS = Set.of("push", "fetch", "pull");
+    static final byte STDOUT = 1;
+    static final byte STDERR = 2;
+    static final byte EXIT = 3;
+
+    /**
+     * the state files of the repository, see stamp()
+     */
+    private static final File[] STATE_FILES = {HEAD_FILE, INDEX_FILE, INDEX_JOURNAL_FILE, REMOTE_FILE, CONFIG_FILE,
+        Utils.join(GITLET_DIR, "commit-graph"), Utils.join(GITLET_DIR, "commit-ids"),
+        Utils.join(GITLET_DIR, "commit-messages"), PACKS_DIR, GC_LOG_FILE};
+
+    public static void daemon(String[] args) {
+        if (args.length == 1 && args[0].equals("stop")) {
+            if (GitletClient.forward(new String[]{"daemon", "stop"}) == GitletClient.NO_DAEMON) {
+                System.out.println("No daemon is running.");
+            }
+            return;
+        }
+        if (args.length != 0) {
+            System.out.println(INCORRECT_OPERANDS_WARNING);
+            return;
+        }
+        try {
+            serve();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private static void serve() throws IOException {
+        Files.deleteIfExists(SOCKET_PATH);
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(SOCKET_PATH));
+            stdout.println("Serving " + CWD + " on " + SOCKET_PATH);
+            List<String> stamp = stamp();
+            boolean running = true;
+            while (running) {
+                try (SocketChannel client = server.accept()) {
+                    DataOutputStream response = new DataOutputStream(Channels.newOutputStream(client));
+                    PrintStream out = new PrintStream(new BufferedOutputStream(new FrameStream(response, STDOUT)), true);
+                    PrintStream err = new PrintStream(new BufferedOutputStream(new FrameStream(response, STDERR)), true);
+                    String[] args = readRequest(client);
+                    int status = 0;
+                    if (args.length > 0 && args[0].equals("daemon")) {
+                        running = !(args.length == 2 && args[1].equals("stop"));
+                        out.println(running ? "The daemon is already running." : "Stopped the daemon.");
+                    } else {
+                        status = run(args, out, err, stamp);
+                        stamp = stamp();
+                    }
+                    out.flush();
+                    err.flush();
+                    response.writeByte(EXIT);
+                    response.writeInt(status);
+                } catch (IOException excp) {
+                    stderr.println("daemon: " + excp.getMessage());
+                }
+            }
+        } finally {
+            Files.deleteIfExists(SOCKET_PATH);
+        }
+    }
+
+    /**
+     * run one command with its output sent to the client
+     *
+     * @param stamp the stamp after the previous command
+     * @return the exit status of the command
+     */
+    private static int run(String[] args, PrintStream out, PrintStream err, List<String> stamp) throws IOException {
+        boolean remote = args.length > 0 && REMOTE_COMMANDS.contains(args[0]);
+        if (remote || !stamp().equals(stamp)) {
+            reload();
+        }
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        int status = 0;
+        System.setOut(out);
+        System.setErr(err);
+        try {
+            Main.main(args);
+        } catch (RuntimeException | Error excp) {
+            // a failed command may leave any state half updated
+            excp.printStackTrace(err);
+            status = 1;
+            reload();
+        } finally {
+            System.setOut(stdout);
+            System.setErr(stderr);
+        }
+        if (remote) {
+            reload();
+        } else if (IndexUtils.hasUnsavedChanges()) {
+            // a command which stopped with an error may have changed the index only in memory
+            IndexUtils.reset();
+        }
+        return status;
+    }
+
+    private static String[] readRequest(SocketChannel client) throws IOException {
+        DataInputStream in = new DataInputStream(Channels.newInputStream(client));
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i += 1) {
+            byte[] arg = new byte[in.readInt()];
+            in.readFully(arg);
+            args[i] = new String(arg, StandardCharsets.UTF_8);
+        }
+        return args;
+    }
+
+    /**
+     * encode a request for the daemon
+     */
+    static ByteBuffer encodeRequest(String[] args) {
+        byte[][] encoded = new byte[args.length][];
+        int length = 4;
+        for (int i = 0; i < args.length; i += 1) {
+            encoded[i] = args[i].getBytes(StandardCharsets.UTF_8);
+            length += 4 + encoded[i].length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.putInt(args.length);
+        for (byte[] arg : encoded) {
+            buffer.putInt(arg.length).put(arg);
+        }
+        return buffer.flip();
+    }
+
+    /**
+     * an output stream which sends everything written to it to the client as frames with its tag
+     */
+    private static class FrameStream extends OutputStream {
+        private final DataOutputStream response;
+        private final byte tag;
+
+        FrameStream(DataOutputStream response, byte tag) {
+            this.response = response;
+            this.tag = tag;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            response.writeByte(tag);
+            response.writeInt(len);
+            response.write(b, off, len);
+        }
+    }
+
+    /**
+     * @return the stat of every state file, and the stat of every pack, which change whenever they are written
+     */
+    private static List<String> stamp() throws IOException {
+        List<String> stamp = new ArrayList<>();
+        for (File file : STATE_FILES) {
+            stamp.add(statOf(file));
+        }
+        List<String> packNames = Utils.plainFilenamesIn(PACKS_DIR);
+        if (packNames != null) {
+            for (String packName : packNames) {
+                stamp.add(packName + statOf(Utils.join(PACKS_DIR, packName)));
+            }
+        }
+        return stamp;
+    }
+
+    private static String statOf(File file) throws IOException {
+        if (!file.exists()) {
+            return "-";
+        }
+        BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        return attributes.lastModifiedTime().toInstant() + " " + attributes.size() + " " + attributes.fileKey();
+    }
+
+    /**
+     * drop all state loaded from the repository, so the next command reads what it needs again.
+     * content addressed caches, like the commits already read, stay valid
+     */
+    private static void reload() {
+        Repository.reset();
+        IndexUtils.reset();
+        RemoteUtils.reset();
+        ConfigUtils.reset();
+        CommitGraph.reset();
+        CommitIdIndex.reset();
+        CommitMessageIndex.reset();
+        PackUtils.reset();
+        TreeUtils.reset();
+    }
+}
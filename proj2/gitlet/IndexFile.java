@@ -0,0 +1,353 @@
+package gitlet;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+
+import static gitlet.Utils.*;
+
+/**
+ * @description the binary index file and its append-only journal, see IndexUtils for how they are used.
+ * <p>
+ * index:   "GIND" | version | tree id | count | entries sorted by file name | crc32c of everything before it
+ * entry:   file name | id(20 bytes) | size | mtime | file key        (strings are a short length and utf-8 bytes)
+ * journal: records(length | op | file name | rest of the entry for a put | crc32c of op to the end)...
+ *          each append ends with a stamp record (length | op | mtime of the journal | crc32c)
+ * <p>
+ * journal records are replayed in order over the index when it is read, and a torn last record is cut off.
+ * the tree id (20 zero bytes if there is none) is the root tree the index was equal to when it was written,
+ * so the tree of the next commit only rewrites the directories of the file names in the journal.
+ * a size of -1 means the entry has no stat. a stat which isn't older than the index file, or than the stamp
+ * after its journal record, is racily clean and dropped, so that working file is hashed again.
+ * the journal's own mtime can't be used, as later appends move it forward. a record without a stamp after it
+ * drops its stat too.
+ */
+class IndexFile {
+    private static final int MAGIC = 0x47494e44; // "GIND"
+    private static final int VERSION = 2;
+    private static final int ID_BYTES = UID_LENGTH / 2;
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final byte STAMP = 3;
+    private static final int JAVA_SERIALIZATION_MAGIC = 0xaced;
+    private static final String NO_TREE = "0".repeat(UID_LENGTH);
+
+    /**
+     * everything read from the index and its journal
+     */
+    static class Contents {
+        final HashMap<String, String> indexMap = new HashMap<>();
+        final HashMap<String, IndexUtils.FileStat> stats = new HashMap<>();
+        /**
+         * the file names of the index file, in order, for the next write
+         */
+        final List<String> sortedFileNames = new ArrayList<>();
+        /**
+         * the file names of the journal records, which may differ from the tree
+         */
+        final Set<String> journalFileNames = new HashSet<>();
+        /**
+         * the number of journal records, or -1 if the index is in the old serialized format and must be rewritten
+         */
+        int journalRecords = 0;
+        /**
+         * the root tree the index file was equal to, null if unknown
+         */
+        String treeId;
+    }
+
+    /**
+     * read the index and replay its journal
+     */
+    static Contents read(File indexFile, File journalFile) {
+        Contents contents = new Contents();
+        byte[] bytes = indexFile.exists() ? readContents(indexFile) : new byte[0];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (bytes.length >= 2 && (buffer.getShort(0) & 0xffff) == JAVA_SERIALIZATION_MAGIC) {
+            contents.indexMap.putAll(IndexUtils.hashMapRead(indexFile));
+            contents.journalRecords = -1;
+            return contents;
+        }
+        if (bytes.length > 0) {
+            if (bytes.length < 4 + 4 + ID_BYTES + 4 + 4 || buffer.getInt() != MAGIC) {
+                throw error("The index file is corrupted.");
+            }
+            int version = buffer.getInt();
+            CRC32C crc = new CRC32C();
+            crc.update(bytes, 0, bytes.length - 4);
+            if (version != VERSION || (int) crc.getValue() != buffer.getInt(bytes.length - 4)) {
+                throw error("The index file is corrupted.");
+            }
+            String treeId = bytesToId(bytes, buffer.position());
+            buffer.position(buffer.position() + ID_BYTES);
+            contents.treeId = treeId.equals(NO_TREE) ? null : treeId;
+            long writtenAt = modifiedTime(indexFile);
+            int count = buffer.getInt();
+            byte[] id = new byte[ID_BYTES];
+            for (int i = 0; i < count; i += 1) {
+                contents.sortedFileNames.add(readEntry(buffer, id, writtenAt, contents.indexMap, contents.stats));
+            }
+        }
+        if (journalFile.exists()) {
+            contents.journalRecords = replayJournal(journalFile, contents);
+        }
+        return contents;
+    }
+
+    private static int replayJournal(File journalFile, Contents contents) {
+        HashMap<String, String> indexMap = contents.indexMap;
+        HashMap<String, IndexUtils.FileStat> stats = contents.stats;
+        ByteBuffer buffer = ByteBuffer.wrap(readContents(journalFile));
+        List<String> unstamped = new ArrayList<>();
+        byte[] id = new byte[ID_BYTES];
+        CRC32C crc = new CRC32C();
+        int records = 0;
+        int end = 0;
+        while (buffer.remaining() >= 4) {
+            int length = buffer.getInt();
+            if (length < 5 || buffer.remaining() < length) {
+                break;
+            }
+            int start = buffer.position();
+            crc.reset();
+            crc.update(buffer.array(), start, length - 4);
+            if ((int) crc.getValue() != buffer.getInt(start + length - 4)) {
+                break;
+            }
+            byte op = buffer.get();
+            if (op == PUT) {
+                String fileName = readEntry(buffer, id, Long.MAX_VALUE, indexMap, stats);
+                contents.journalFileNames.add(fileName);
+                unstamped.add(fileName);
+            } else if (op == STAMP) {
+                dropRacilyClean(unstamped, buffer.getLong(), stats);
+            } else {
+                String fileName = readString(buffer);
+                indexMap.remove(fileName);
+                stats.remove(fileName);
+                contents.journalFileNames.add(fileName);
+            }
+            buffer.position(start + length);
+            end = start + length;
+            records += op == STAMP ? 0 : 1;
+        }
+        dropRacilyClean(unstamped, Long.MIN_VALUE, stats);
+        if (end < buffer.limit()) {
+            truncate(journalFile, end); // later records must not be appended after a torn one
+        }
+        return records;
+    }
+
+    /**
+     * drop the stats of the file names which aren't older than the time their records were written at
+     */
+    private static void dropRacilyClean(List<String> fileNames, long writtenAt,
+                                        HashMap<String, IndexUtils.FileStat> stats) {
+        for (String fileName : fileNames) {
+            IndexUtils.FileStat stat = stats.get(fileName);
+            if (stat != null && stat.getMtime() >= writtenAt) {
+                stats.remove(fileName);
+            }
+        }
+        fileNames.clear();
+    }
+
+    private static String readEntry(ByteBuffer buffer, byte[] id, long writtenAt, HashMap<String, String> indexMap,
+                                  HashMap<String, IndexUtils.FileStat> stats) {
+        String fileName = readString(buffer);
+        buffer.get(id);
+        String fileSHA1 = bytesToId(id, 0);
+        long size = buffer.getLong();
+        long mtime = buffer.getLong();
+        String fileKey = readString(buffer);
+        indexMap.put(fileName, fileSHA1);
+        if (size >= 0 && mtime < writtenAt) {
+            stats.put(fileName, new IndexUtils.FileStat(size, mtime, fileKey.isEmpty() ? null : fileKey, fileSHA1));
+        } else {
+            stats.remove(fileName);
+        }
+        return fileName;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xffff;
+        String s = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return s;
+    }
+
+    /**
+     * write the whole index, sorted by file name, and drop the journal
+     *
+     * @param sortedFileNames the file names of the last index file in order, updated to those of the new one.
+     *                        only the file names added since then are sorted
+     * @param treeId          the root tree the index is equal to, or null if unknown
+     */
+    static void write(File indexFile, File journalFile, Map<String, String> indexMap,
+                      Map<String, IndexUtils.FileStat> stats, List<String> sortedFileNames, String treeId) {
+        String[] fileNames = sortedOrder(indexMap, sortedFileNames);
+        sortedFileNames.clear();
+        sortedFileNames.addAll(Arrays.asList(fileNames));
+        ByteBuffer buffer = ByteBuffer.allocate(16 + ID_BYTES + fileNames.length * 96);
+        buffer.putInt(MAGIC).putInt(VERSION).put(idToBytes(treeId == null ? NO_TREE : treeId));
+        buffer.putInt(fileNames.length);
+        for (String fileName : fileNames) {
+            byte[] encodedName = fileName.getBytes(StandardCharsets.UTF_8);
+            String fileSHA1 = indexMap.get(fileName);
+            IndexUtils.FileStat stat = stats.get(fileName);
+            int length = entryLength(encodedName, fileSHA1, stat);
+            if (buffer.remaining() < length + 4) {
+                buffer = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + length + 4))
+                        .put(buffer.flip());
+            }
+            putEntry(buffer, encodedName, fileSHA1, stat);
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) crc.getValue());
+        try {
+            File tempFile = File.createTempFile("tmp-", ".index", indexFile.getParentFile());
+            try (OutputStream out = new FileOutputStream(tempFile)) {
+                out.write(buffer.array(), 0, buffer.position());
+            }
+            Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        journalFile.delete();
+    }
+
+    /**
+     * @return the file names of the index in order, merging the few added ones into the previous order
+     */
+    private static String[] sortedOrder(Map<String, String> indexMap, List<String> previousOrder) {
+        List<String> kept = new ArrayList<>(indexMap.size());
+        for (String fileName : previousOrder) {
+            if (indexMap.containsKey(fileName)) {
+                kept.add(fileName);
+            }
+        }
+        if (kept.size() == indexMap.size()) {
+            return kept.toArray(new String[0]);
+        }
+        if (kept.isEmpty()) {
+            String[] fileNames = indexMap.keySet().toArray(new String[0]);
+            Arrays.sort(fileNames);
+            return fileNames;
+        }
+        HashSet<String> keptSet = new HashSet<>(kept);
+        List<String> added = new ArrayList<>();
+        for (String fileName : indexMap.keySet()) {
+            if (!keptSet.contains(fileName)) {
+                added.add(fileName);
+            }
+        }
+        added.sort(String::compareTo);
+        String[] fileNames = new String[indexMap.size()];
+        int i = 0;
+        int j = 0;
+        for (int k = 0; k < fileNames.length; k += 1) {
+            if (j == added.size() || (i < kept.size() && kept.get(i).compareTo(added.get(j)) < 0)) {
+                fileNames[k] = kept.get(i++);
+            } else {
+                fileNames[k] = added.get(j++);
+            }
+        }
+        return fileNames;
+    }
+
+    /**
+     * append the current entries of the changed file names to the journal, a removal for those not in the index,
+     * and then a stamp of the journal's mtime once they are written
+     */
+    static void append(File journalFile, Collection<String> changedFileNames, Map<String, String> indexMap,
+                       Map<String, IndexUtils.FileStat> stats) {
+        CRC32C crc = new CRC32C();
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(journalFile, true))) {
+            for (String fileName : changedFileNames) {
+                byte[] encodedName = fileName.getBytes(StandardCharsets.UTF_8);
+                String fileSHA1 = indexMap.get(fileName);
+                int length = 1 + (fileSHA1 != null
+                        ? entryLength(encodedName, fileSHA1, stats.get(fileName)) : 2 + encodedName.length) + 4;
+                ByteBuffer record = ByteBuffer.allocate(4 + length);
+                record.putInt(length);
+                if (fileSHA1 != null) {
+                    record.put(PUT);
+                    putEntry(record, encodedName, fileSHA1, stats.get(fileName));
+                } else {
+                    record.put(REMOVE);
+                    putString(record, encodedName);
+                }
+                crc.reset();
+                crc.update(record.array(), 4, record.position() - 4);
+                record.putInt((int) crc.getValue());
+                out.write(record.array(), 0, record.position());
+            }
+            out.flush();
+            ByteBuffer stamp = ByteBuffer.allocate(4 + 1 + 8 + 4);
+            stamp.putInt(1 + 8 + 4).put(STAMP).putLong(modifiedTime(journalFile));
+            crc.reset();
+            crc.update(stamp.array(), 4, stamp.position() - 4);
+            stamp.putInt((int) crc.getValue());
+            out.write(stamp.array());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * the stat is only written if it describes the version in the index
+     */
+    private static boolean hasStat(String fileSHA1, IndexUtils.FileStat stat) {
+        return stat != null && stat.getSha1().equals(fileSHA1);
+    }
+
+    private static byte[] encodedFileKey(String fileSHA1, IndexUtils.FileStat stat) {
+        return hasStat(fileSHA1, stat) && stat.getFileKey() != null
+                ? stat.getFileKey().getBytes(StandardCharsets.UTF_8) : new byte[0];
+    }
+
+    private static int entryLength(byte[] encodedName, String fileSHA1, IndexUtils.FileStat stat) {
+        return 2 + encodedName.length + ID_BYTES + 16 + 2 + encodedFileKey(fileSHA1, stat).length;
+    }
+
+    private static void putEntry(ByteBuffer buffer, byte[] encodedName, String fileSHA1,
+                                 IndexUtils.FileStat stat) {
+        boolean hasStat = hasStat(fileSHA1, stat);
+        putString(buffer, encodedName);
+        buffer.put(idToBytes(fileSHA1));
+        buffer.putLong(hasStat ? stat.getSize() : -1);
+        buffer.putLong(hasStat ? stat.getMtime() : 0);
+        putString(buffer, encodedFileKey(fileSHA1, stat));
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] encoded) {
+        buffer.putShort((short) encoded.length);
+        buffer.put(encoded);
+    }
+
+    private static void truncate(File file, long size) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            channel.truncate(size);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private static long modifiedTime(File file) {
+        try {
+            return Files.readAttributes(file.toPath(), BasicFileAttributes.class)
+                    .lastModifiedTime().to(TimeUnit.NANOSECONDS);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
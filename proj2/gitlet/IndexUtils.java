@@ -1,9 +1,18 @@
 package gitlet;
 
-import java.io.File;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import static gitlet.GitletConstants.*;
 import static gitlet.Utils.*;
@@ -15,53 +24,339 @@ import static gitlet.Utils.*;
 public class IndexUtils {
     /**
      * read the index file, which stores a map(file name to version), it represents the next commit's name to version.
-     * which means just after one commit, the indexMap equals to commit fileVersionMap
+     * which means just after one commit, the indexMap equals to commit fileVersionMap.
+     * it is read with the rest of the index on first use, see getIndexMap(), so commands like log never read it
      */
-    public static HashMap<String, String> indexMap;
+    private static HashMap<String, String> indexMap;
+
+    /**
+     * the stat cache, file name -> stat of the working file when it was last hashed.
+     * a working file whose size, mtime and file key still match is not hashed again
+     */
+    private static HashMap<String, FileStat> statCache = new HashMap<>();
+    /**
+     * file names whose index entry (or stat) changed since the index was read, appended to the journal by saveIndex
+     */
+    private static final LinkedHashSet<String> changedFileNames = new LinkedHashSet<>();
+    /**
+     * journal records are replayed by every command, so the index is rewritten once there are this many
+     */
+    private static final int JOURNAL_LIMIT = 1024;
     /**
-     * staged file, which stages sha1 id --> file contents, use to stage or unstage
+     * file names of the index file in order, so rewriting it only sorts the added ones
      */
-    public static HashMap<String, String> stagedFileContent;
+    private static List<String> sortedFileNames = new ArrayList<>();
+    private static int journalRecords = 0;
+    private static boolean rewriteIndex = false;
+    /**
+     * the root tree the index was equal to when it was last written whole, null if unknown.
+     * since then the index can only differ from it in changedSinceTree
+     */
+    private static String indexTreeId;
+    private static Set<String> changedSinceTree = new HashSet<>();
 
-    static {
-        if (Repository.isInitialized()) {
-            indexMap = readIndex();
-            stagedFileContent = readStagedContent();
+    /**
+     * @return the index, read on first use. null if this project isn't gitlet initialized
+     */
+    public static HashMap<String, String> getIndexMap() {
+        if (indexMap == null && Repository.isInitialized()) {
+            long start = System.nanoTime();
+            IndexFile.Contents contents = IndexFile.read(INDEX_FILE, INDEX_JOURNAL_FILE);
+            statCache = contents.stats;
+            sortedFileNames = contents.sortedFileNames;
+            changedSinceTree = contents.journalFileNames;
+            indexTreeId = contents.treeId;
+            journalRecords = contents.journalRecords;
+            rewriteIndex = journalRecords < 0;
+            indexMap = contents.indexMap;
+            migrateStagedContent();
+            if (TRACE) {
+                System.err.printf("index: %d entries read in %.1f ms%n", indexMap.size(),
+                        (System.nanoTime() - start) / 1e6);
+            }
+        }
+        return indexMap;
+    }
+
+    /**
+     * @return the root tree the index was equal to when it was last written whole, null if unknown
+     */
+    static String getIndexTreeId() {
+        getIndexMap();
+        return indexTreeId;
+    }
+
+    /**
+     * drop everything kept in memory, so the index is read again on next use.
+     * a daemon calls it when another process has changed the index since
+     */
+    static void reset() {
+        indexMap = null;
+        statCache = new HashMap<>();
+        changedFileNames.clear();
+        sortedFileNames = new ArrayList<>();
+        journalRecords = 0;
+        rewriteIndex = false;
+        indexTreeId = null;
+        changedSinceTree = new HashSet<>();
+    }
+
+    /**
+     * size, mtime and file key of a working file, and the sha1 of its contents
+     */
+    static class FileStat {
+        private final long size;
+        private final long mtime;
+        private final String fileKey;
+        private final String sha1;
+
+        FileStat(long size, long mtime, String fileKey, String sha1) {
+            this.size = size;
+            this.mtime = mtime;
+            this.fileKey = fileKey;
+            this.sha1 = sha1;
+        }
+
+        FileStat(BasicFileAttributes attributes, String sha1) {
+            this.size = attributes.size();
+            this.mtime = attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+            this.fileKey = Objects.toString(attributes.fileKey(), null);
+            this.sha1 = sha1;
+        }
+
+        boolean matches(BasicFileAttributes attributes) {
+            return size == attributes.size() && mtime == attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS)
+                    && Objects.equals(fileKey, Objects.toString(attributes.fileKey(), null));
+        }
+
+        long getSize() {
+            return size;
+        }
+
+        long getMtime() {
+            return mtime;
+        }
+
+        String getFileKey() {
+            return fileKey;
+        }
+
+        String getSha1() {
+            return sha1;
         }
     }
 
 
     /***
-     * this function will write indexMap & stagedFileContents to INDEX_FILE & STAGED_FILE
+     * this function will save the changes to indexMap, appended to the index journal,
+     * or by rewriting the index once the journal is long or the whole map was replaced.
      * every change to index must be saved
-     * @note you must store stagedFileContents to STAGED_FILE and clear it after one commit!
      */
     public static void saveIndex() {
-        Utils.writeObject(INDEX_FILE, indexMap);
-        Utils.writeObject(STAGED_FILE, stagedFileContent);
+        if (indexMap == null) {
+            return; // never read, so nothing changed
+        }
+        if (rewriteIndex) {
+            compactIndex(changedSinceTree.isEmpty() ? indexTreeId : null);
+            return;
+        }
+        if (journalRecords + changedFileNames.size() > JOURNAL_LIMIT) {
+            compactIndex(null); // the changed file names are dropped with the journal
+            return;
+        }
+        if (changedFileNames.isEmpty()) {
+            return;
+        }
+        IndexFile.append(INDEX_JOURNAL_FILE, changedFileNames, indexMap, statCache);
+        journalRecords += changedFileNames.size();
+        changedFileNames.clear();
+    }
+
+    /**
+     * @return if the index in memory has changes which saveIndex hasn't written yet
+     */
+    static boolean hasUnsavedChanges() {
+        return rewriteIndex || !changedFileNames.isEmpty();
+    }
+
+    /**
+     * save the stats a command which changes nothing else, like status, has recorded.
+     * they only spare hashing a file again, so nothing is written if there are none or the index can't be written
+     */
+    public static void saveStats() {
+        if (!hasUnsavedChanges() || !Files.isWritable(GITLET_DIR.toPath())
+                || (INDEX_JOURNAL_FILE.exists() && !Files.isWritable(INDEX_JOURNAL_FILE.toPath()))) {
+            return;
+        }
+        saveIndex();
     }
 
     /**
-     * stages a file (note: if file wrong, it will throw exception) in indexMap and stagedFileContents
+     * rewrite the whole index, folding the journal into it
      *
-     * @note this function will NOT save anything to disk, just keep them in memory
+     * @param treeId the root tree the index is equal to, or null if unknown
+     */
+    public static void compactIndex(String treeId) {
+        IndexFile.write(INDEX_FILE, INDEX_JOURNAL_FILE, getIndexMap(), statCache, sortedFileNames, treeId);
+        journalRecords = 0;
+        rewriteIndex = false;
+        changedFileNames.clear();
+        indexTreeId = treeId;
+        changedSinceTree.clear();
+    }
+
+    /**
+     * replace the whole index by the files of a checked out commit
+     *
+     * @param treeId the root tree of the commit, or null if it has none
+     */
+    public static void replaceIndex(HashMap<String, String> newIndexMap, String treeId) {
+        getIndexMap(); // the stat cache and the order of file names are kept
+        indexMap = newIndexMap;
+        rewriteIndex = true;
+        indexTreeId = treeId;
+        changedSinceTree.clear();
+    }
+
+    /**
+     * write the trees of the index, only rewriting the directories which changed since the index tree
+     *
+     * @return the id of the root tree
+     */
+    public static String writeIndexTree() {
+        HashMap<String, String> files = getIndexMap();
+        if (indexTreeId == null) {
+            return TreeUtils.writeTree(GITLET_DIR, files);
+        }
+        return TreeUtils.updateTree(GITLET_DIR, indexTreeId, files, changedSinceTree);
+    }
+
+    /**
+     * @return the sha1 of the working file, taken from the stat cache if the file hasn't changed since it was hashed
+     */
+    public static String workingFileSha1(String fileName) {
+        File file = join(CWD, fileName);
+        if (getIndexMap() == null) {
+            return FileUtils.hashFile(file);
+        }
+        BasicFileAttributes attributes = readAttributes(file);
+        String cached = cachedSha1(fileName, attributes);
+        if (cached != null) {
+            return cached;
+        }
+        String fileSHA1 = FileUtils.hashFile(file);
+        recordStat(fileName, attributes, fileSHA1);
+        return fileSHA1;
+    }
+
+    /**
+     * @return the cached sha1 of the working file if its stat still matches, otherwise null.
+     * racily clean stats were already dropped when the index was read.
+     * it only reads the stat cache, so many threads may call it at once once the index has been read
+     */
+    static String cachedSha1(String fileName, BasicFileAttributes attributes) {
+        FileStat stat = statCache.get(fileName);
+        if (stat != null && stat.matches(attributes)) {
+            return stat.sha1;
+        }
+        return null;
+    }
+
+    /**
+     * @return if the working file is there and its cached stat says it is the version, without hashing it
+     */
+    public static boolean workingFileMatches(String fileName, String fileSHA1) {
+        File file = join(CWD, fileName);
+        return getIndexMap() != null && file.isFile() && fileSHA1.equals(cachedSha1(fileName, readAttributes(file)));
+    }
+
+    /**
+     * remember the sha1 of a working file which has just been written from that version.
+     * a command which hasn't read the index won't save it either, so the index isn't read for this
+     */
+    public static void recordStat(String fileName, String fileSHA1) {
+        if (indexMap != null) {
+            recordStat(fileName, readAttributes(join(CWD, fileName)), fileSHA1);
+        }
+    }
+
+    static void recordStat(String fileName, BasicFileAttributes attributes, String fileSHA1) {
+        HashMap<String, String> indexMap = getIndexMap();
+        statCache.put(fileName, new FileStat(attributes, fileSHA1));
+        if (fileSHA1.equals(indexMap.get(fileName))) {
+            markChanged(fileName); // only a stat of the version in the index is saved
+        }
+    }
+
+    private static void markChanged(String fileName) {
+        changedFileNames.add(fileName);
+        changedSinceTree.add(fileName);
+    }
+
+    static BasicFileAttributes readAttributes(File file) {
+        try {
+            return Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * stages a file (note: if file wrong, it will throw exception) in indexMap,
+     * and writes the file version straight into .gitlet/objects, as a delta against the version
+     * the head commit tracks if that is smaller. a commit then only records the staged ids
+     *
+     * @note this function will NOT save the index to disk, just keep it in memory
      */
     public static void stageFile(String fileName) {
-        String fileContents = readContentsAsString(join(CWD, fileName));
-        String fileSHA1 = sha1(fileContents);
-        indexMap.put(fileName, fileSHA1);
-        stagedFileContent.put(fileSHA1, fileContents);
+        stageFile(fileName, workingFileSha1(fileName));
+    }
+
+    /**
+     * stage a working file whose sha1 is already known, see stageFile(String)
+     */
+    public static void stageFile(String fileName, String fileSHA1) {
+        getIndexMap().put(fileName, fileSHA1);
+        markChanged(fileName);
+        if (FileUtils.hasGitletObject(fileSHA1)) {
+            FileUtils.freshenObject(fileSHA1);
+        } else {
+            Commit headCommit = CommitUtils.readCommit(Repository.getHeadCommitId());
+            FileUtils.writeGitletObjectsFile(join(CWD, fileName), fileSHA1,
+                    headCommit.getFileVersionMap().get(fileName));
+        }
     }
 
     /***
      * unstage a file in memory
-     * @note this function will NOT save anything to disk, just keep them in memory
-     * @note there maybe redundant entry in stagedFileContents, but it will finally be cleared once commit.
+     * @note this function will NOT save the index to disk, just keep it in memory
+     * @note the object written by stageFile stays in .gitlet/objects, unreferenced until it is staged again
      */
     public static void unstageFile(String fileName) {
-        String fileSHA1 = indexMap.get(fileName);
-        indexMap.remove(fileName);
-        stagedFileContent.remove(fileSHA1);
+        getIndexMap().remove(fileName);
+        markChanged(fileName);
+    }
+
+    /**
+     * repositories written by older versions kept staged contents in STAGED_FILE, sha1 id --> file contents,
+     * as strings or as bytes. write them to .gitlet/objects and drop STAGED_FILE
+     */
+    private static void migrateStagedContent() {
+        if (!STAGED_FILE.exists()) {
+            return;
+        }
+        if (STAGED_FILE.length() != 0) {
+            HashMap<String, Object> stagedFileContent = readObject(STAGED_FILE, HashMap.class);
+            for (String fileSHA1 : stagedFileContent.keySet()) {
+                Object contents = stagedFileContent.get(fileSHA1);
+                if (!FileUtils.hasGitletObject(fileSHA1)) {
+                    CompressUtils.writeObject(ObjectPathUtils.newLooseFile(OBJECTS_DIR, fileSHA1),
+                            DeltaUtils.literal(contents instanceof String
+                                    ? ((String) contents).getBytes(StandardCharsets.UTF_8) : (byte[]) contents));
+                }
+            }
+        }
+        STAGED_FILE.delete();
     }
 
     public static HashMap<String, String> hashMapRead(File file) {
@@ -72,14 +367,6 @@ public class IndexUtils {
         return hashMap == null ? new HashMap<>() : hashMap;
     }
 
-    public static HashMap<String, String> readIndex() {
-        return hashMapRead(INDEX_FILE);
-    }
-
-    public static HashMap<String, String> readStagedContent() {
-        return hashMapRead(STAGED_FILE);
-    }
-
     /**
      * get staged files for git status.
      * compare the difference between the stagedfiles and the commit's files
@@ -87,6 +374,7 @@ public class IndexUtils {
      */
     public static List<String> getStagedFiles(Commit commit) {
         HashMap<String, String> fileVersionMap = commit.getFileVersionMap();
+        HashMap<String, String> indexMap = getIndexMap();
         List<String> res = new LinkedList<>();
         for (String fileName : indexMap.keySet()) {
             if (fileVersionMap.containsKey(fileName)) {
@@ -111,7 +399,7 @@ public class IndexUtils {
         HashMap<String, String> fileVersionMap = commit.getFileVersionMap();
         List<String> res = new LinkedList<>();
         for (String fileName : fileVersionMap.keySet()) {
-            if (!indexMap.containsKey(fileName)) {
+            if (!getIndexMap().containsKey(fileName)) {
                 res.add(fileName);
             }
         }
@@ -127,9 +415,10 @@ public class IndexUtils {
     public static boolean isStaged(String fileName, Commit commit) {
         assert fileName != null && commit != null;
         HashMap<String, String> fileVersionMap = commit.getFileVersionMap();
+        HashMap<String, String> indexMap = getIndexMap();
         return (indexMap.containsKey(fileName) && !fileVersionMap.containsKey(fileName))
                 || (indexMap.containsKey(fileName) && fileVersionMap.containsKey(fileName)
-                && !fileVersionMap.get(fileName).equals(fileVersionMap.get(fileName)));
+                && !fileVersionMap.get(fileName).equals(indexMap.get(fileName)));
     }
 
     /**
@@ -137,18 +426,17 @@ public class IndexUtils {
      */
     public static boolean isRemoval(String fileName, Commit commit) {
         assert fileName != null && commit != null;
-        return commit.getFileVersionMap().containsKey(fileName) && !indexMap.containsKey(fileName);
+        return commit.getFileVersionMap().containsKey(fileName) && !getIndexMap().containsKey(fileName);
     }
 
-    public static List<String> getUntrackedFiles(Commit commit) {
-        List<String> cwdFileNames = plainFilenamesIn(CWD);
+    public static List<String> getUntrackedFiles(Commit commit, WorkingTree tree) {
         List<String> res = new LinkedList<>();
-        assert cwdFileNames != null;
-        for (String fileName : cwdFileNames) {
+        for (String fileName : tree.getFileNames()) {
             if (!isStaged(fileName, commit) && !CommitUtils.isTrackedByCommit(commit, fileName)) {
                 res.add(fileName);
             }
         }
+        res.sort(String::compareTo);
         return res;
     }
 
@@ -161,14 +449,14 @@ public class IndexUtils {
      *
      * @return modifiedNotStagedForCommit file name list
      */
-    public static List<StringBuffer> modifiedNotStagedForCommit(Commit commit) {
-        List<String> cwdFileNames = plainFilenamesIn(CWD);
+    public static List<StringBuffer> modifiedNotStagedForCommit(Commit commit, WorkingTree tree) {
         List<StringBuffer> res = new LinkedList<>();
-        for (String fileName : cwdFileNames) {
+        for (String fileName : tree.getFileNames()) {
             boolean fileIsStaged = isStaged(fileName, commit);
             boolean fileIsTracked = CommitUtils.isTrackedByCommit(commit, fileName);
-            if ((fileIsStaged && !FileUtils.hasSameSHA1(fileName, indexMap.get(fileName))
-                    || (fileIsTracked && !FileUtils.hasSameSHA1(fileName, commit.getFileVersionMap().get(fileName))
+            String fileSHA1 = tree.sha1Of(fileName);
+            if ((fileIsStaged && !fileSHA1.equals(getIndexMap().get(fileName))
+                    || (fileIsTracked && !fileSHA1.equals(commit.getFileVersionMap().get(fileName))
                             && !fileIsStaged))) {
                 res.add(new StringBuffer(fileName));
             }
@@ -182,19 +470,17 @@ public class IndexUtils {
      *
      * @return deletedNotStagedForCommit file name list
      */
-    public static List<StringBuffer> deletedNotStagedForCommit(Commit commit) {
-        List<String> cwdFileNames = plainFilenamesIn(CWD);
-        assert cwdFileNames != null;
+    public static List<StringBuffer> deletedNotStagedForCommit(Commit commit, WorkingTree tree) {
         List<StringBuffer> res = new LinkedList<>();
         List<String> stagedFiles = getStagedFiles(commit);
         for (String fileName : stagedFiles) {
-            if (!cwdFileNames.contains(fileName)) {
+            if (!tree.contains(fileName)) {
                 res.add(new StringBuffer(fileName));
             }
         }
         HashMap<String, String> fileVersionMap = commit.getFileVersionMap();
         for (String fileName : fileVersionMap.keySet()) {
-            if (!cwdFileNames.contains(fileName) && !isRemoval(fileName, commit)) {
+            if (!tree.contains(fileName) && !isRemoval(fileName, commit)) {
                 res.add(new StringBuffer(fileName));
             }
         }
@@ -0,0 +1,79 @@
+package gitlet;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * @description the options of log and global-log:
+ * <p>
+ * -n [count]        print at most count commits
+ * --since [date]    only commits made at or after the date
+ * --until [date]    only commits made at or before the date
+ * --first-parent    follow only first parents, which log always does; global-log has no history to follow
+ * <p>
+ * dates are yyyy-MM-dd or "yyyy-MM-dd HH:mm:ss", in the time zone log prints dates in.
+ */
+public class LogOptions {
+    private static final DateTimeFormatter DATE_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private int limit = Integer.MAX_VALUE;
+    private long since = Long.MIN_VALUE;
+    private long until = Long.MAX_VALUE;
+    private boolean firstParent = false;
+
+    /**
+     * @return the options of the arguments, or null if they aren't valid
+     */
+    public static LogOptions parse(String[] args) {
+        LogOptions options = new LogOptions();
+        try {
+            for (int i = 0; i < args.length; i += 1) {
+                switch (args[i]) {
+                    case "-n":
+                        options.limit = Integer.parseInt(args[++i]);
+                        if (options.limit < 0) {
+                            return null;
+                        }
+                        break;
+                    case "--since":
+                        options.since = parseDate(args[++i]);
+                        break;
+                    case "--until":
+                        options.until = parseDate(args[++i]);
+                        break;
+                    case "--first-parent":
+                        options.firstParent = true;
+                        break;
+                    default:
+                        return null;
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException | DateTimeParseException excp) {
+            return null;
+        }
+        return options;
+    }
+
+    private static long parseDate(String date) {
+        LocalDateTime dateTime = date.length() == "yyyy-MM-dd".length()
+                ? LocalDate.parse(date).atStartOfDay() : LocalDateTime.parse(date, DATE_TIME_FORMAT);
+        return dateTime.atZone(Commit.LOG_TIME_ZONE).toInstant().toEpochMilli();
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public boolean isFirstParent() {
+        return firstParent;
+    }
+
+    /**
+     * @return if a commit made at the time passes --since and --until
+     */
+    public boolean includes(long commitTime) {
+        return commitTime >= since && commitTime <= until;
+    }
+}
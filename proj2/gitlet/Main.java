@@ -24,19 +24,19 @@ public class Main {
                 }
                 break;
             case "add":
-                commandRunner(restArgs.length == 1, Repository::add, restArgs[0]);
+                commandRunner(restArgs.length >= 1, Repository::add, restArgs);
                 break;
             case "commit":
                 commandRunner(restArgs.length == 1, Repository::commit, restArgs[0]);
                 break;
             case "rm":
-                commandRunner(restArgs.length == 1, Repository::rm, restArgs[0]);
+                commandRunner(restArgs.length >= 1, Repository::rm, restArgs);
                 break;
             case "log":
-                commandRunner(restArgs.length == 0, Repository::log);
+                commandRunner(LogOptions.parse(restArgs) != null, Repository::log, LogOptions.parse(restArgs));
                 break;
             case "global-log":
-                commandRunner(restArgs.length == 0, Repository::globalLog);
+                commandRunner(LogOptions.parse(restArgs) != null, Repository::globalLog, LogOptions.parse(restArgs));
                 break;
             case "checkout":
                 commandRunner(restArgs.length >= 1 && restArgs.length <= 3, Repository::checkout, restArgs);
@@ -45,7 +45,8 @@ public class Main {
                 commandRunner(restArgs.length == 1, Repository::branch, restArgs[0]);
                 break;
             case "find":
-                commandRunner(restArgs.length == 1, Repository::find, restArgs[0]);
+                commandRunner(restArgs.length == 1 || (restArgs.length == 2 && "--grep".equals(restArgs[0])),
+                        Repository::find, restArgs);
                 break;
             case "status":
                 commandRunner(restArgs.length == 0, Repository::status);
@@ -74,36 +75,45 @@ public class Main {
             case "pull":
                 commandRunner(restArgs.length == 2, RemoteUtils::pull, restArgs[0], restArgs[1]);
                 break;
+            case "config":
+                commandRunner(restArgs.length == 1 || restArgs.length == 2, ConfigUtils::config, restArgs);
+                break;
+            case "commit-graph":
+                commandRunner(restArgs.length == 0, Repository::writeCommitGraph);
+                break;
+            case "commit-messages":
+                commandRunner(restArgs.length == 0, Repository::writeMessageIndex);
+                break;
+            case "shard-objects":
+                commandRunner(restArgs.length == 0, ObjectPathUtils::shardObjects);
+                break;
+            case "repack":
+                commandRunner(restArgs.length == 0, PackUtils::repack);
+                break;
+            case "gc":
+                commandRunner(true, GcUtils::gc, restArgs);
+                break;
+            case "daemon":
+                commandRunner(true, GitletDaemon::daemon, restArgs);
+                break;
             case "test":
                 break;
             default:
                 System.out.println("No command with that name exists.");
         }
+        if (GitletConstants.TRACE) {
+            System.err.printf("commit cache: %d hits, %d misses%n",
+                    CommitUtils.getCacheHits(), CommitUtils.getCacheMisses());
+        }
     }
 
     private static <T> void commandRunner(boolean argsNumberCheck, Consumer<T> function, T args) {
-        if (!Repository.isInitialized()) {
-            System.out.println(UNINITIALIZED_WARNING);
-            return;
-        }
-        if (!argsNumberCheck) {
-            System.out.println(INCORRECT_OPERANDS_WARNING);
-            return;
-        }
-        function.accept(args);
+        commandRunner(argsNumberCheck, () -> function.accept(args));
     }
 
     private static <T1, T2> void commandRunner(boolean argsNumberCheck, BiConsumer<T1, T2> function,
                                                T1 args1, T2 args2) {
-        if (!Repository.isInitialized()) {
-            System.out.println(UNINITIALIZED_WARNING);
-            return;
-        }
-        if (!argsNumberCheck) {
-            System.out.println(INCORRECT_OPERANDS_WARNING);
-            return;
-        }
-        function.accept(args1, args2);
+        commandRunner(argsNumberCheck, () -> function.accept(args1, args2));
     }
 
     private static void commandRunner(boolean argsNumberCheck, Runnable function) {
@@ -115,6 +125,11 @@ public class Main {
             System.out.println(INCORRECT_OPERANDS_WARNING);
             return;
         }
-        function.run();
+        try {
+            function.run();
+        } catch (GitletException excp) {
+            // a gitlet error, its message is what the user should see
+            System.out.println(excp.getMessage());
+        }
     }
 }
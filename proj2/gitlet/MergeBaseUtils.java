@@ -0,0 +1,110 @@
+package gitlet;
+
+import java.util.*;
+
+/**
+ * @description class for finding the merge bases (best common ancestors) of two commits on the commit graph.
+ * <p>
+ * both commits are painted with their own color and walked together, always expanding the commit with
+ * the largest generation first, so a commit is only expanded after all its descendants on the frontier.
+ * a commit reached by both colors is a merge base candidate, and everything below it is painted stale.
+ * since a parent always has a smaller generation than its children, every commit is expanded at most once,
+ * with its final colors.
+ * the walk stops as soon as only stale commits are left, instead of listing every ancestor.
+ * a criss-cross history can have several candidates; the ones which are ancestors of another are dropped.
+ */
+public class MergeBaseUtils {
+    private static final byte PARENT1 = 1;
+    private static final byte PARENT2 = 2;
+    private static final byte STALE = 4;
+    private static final byte RESULT = 8;
+    private static final byte QUEUED = 16;
+
+    /**
+     * @return positions of all best common ancestors of the two commits, most recent first
+     */
+    public static List<Integer> mergeBases(CommitGraph graph, int commit1, int commit2) {
+        if (commit1 == commit2) {
+            return List.of(commit1);
+        }
+        List<Integer> candidates = paintDownToCommon(graph, commit1, commit2);
+        List<Integer> bases = new ArrayList<>();
+        for (int candidate : candidates) {
+            boolean redundant = false;
+            for (int other : candidates) {
+                if (other != candidate && isAncestor(graph, candidate, other)) {
+                    redundant = true;
+                    break;
+                }
+            }
+            if (!redundant) {
+                bases.add(candidate);
+            }
+        }
+        bases.sort(mostRecentFirst(graph));
+        return bases;
+    }
+
+    /**
+     * @return the best merge base of the two commits: the one with the largest generation,
+     * then the latest commit time. null if they have no common ancestor
+     */
+    public static String mergeBase(CommitGraph graph, String commitId1, String commitId2) {
+        List<Integer> bases = mergeBases(graph, graph.positionOf(commitId1), graph.positionOf(commitId2));
+        return bases.isEmpty() ? null : graph.idAt(bases.get(0));
+    }
+
+    private static Comparator<Integer> mostRecentFirst(CommitGraph graph) {
+        return Comparator.<Integer>comparingInt(graph::generationOf)
+                .thenComparingLong(graph::commitTimeOf).reversed();
+    }
+
+    private static List<Integer> paintDownToCommon(CommitGraph graph, int commit1, int commit2) {
+        byte[] flags = new byte[graph.size()];
+        PriorityQueue<Integer> queue = new PriorityQueue<>(mostRecentFirst(graph));
+        flags[commit1] |= PARENT1 | QUEUED;
+        flags[commit2] |= PARENT2 | QUEUED;
+        queue.add(commit1);
+        queue.add(commit2);
+        int nonStale = 2; // queued commits which are not stale yet
+        List<Integer> res = new ArrayList<>();
+
+        while (nonStale > 0) {
+            int p = queue.poll();
+            flags[p] &= ~QUEUED;
+            int paint = flags[p] & (PARENT1 | PARENT2 | STALE);
+            if ((paint & STALE) == 0) {
+                nonStale -= 1;
+            }
+            if (paint == (PARENT1 | PARENT2)) {
+                flags[p] |= RESULT;
+                res.add(p);
+                paint |= STALE;
+            }
+            for (int parent : new int[]{graph.parentOf(p), graph.secondParentOf(p)}) {
+                if (parent == CommitGraph.NO_PARENT || (flags[parent] & paint) == paint) {
+                    continue;
+                }
+                boolean queued = (flags[parent] & QUEUED) != 0;
+                boolean wasStale = (flags[parent] & STALE) != 0;
+                flags[parent] |= paint;
+                boolean stale = (flags[parent] & STALE) != 0;
+                if (!queued) {
+                    flags[parent] |= QUEUED;
+                    queue.add(parent);
+                    nonStale += stale ? 0 : 1;
+                } else if (!wasStale && stale) {
+                    nonStale -= 1;
+                }
+            }
+        }
+        return res;
+    }
+
+    /**
+     * @return if the ancestor is reachable from the commit, never walking below the ancestor's generation
+     */
+    private static boolean isAncestor(CommitGraph graph, int ancestor, int commit) {
+        return graph.isAncestor(graph.idAt(ancestor), graph.idAt(commit));
+    }
+}
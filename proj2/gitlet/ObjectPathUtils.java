@@ -0,0 +1,113 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static gitlet.GitletConstants.*;
+import static gitlet.Utils.*;
+
+/**
+ * @description the only place which knows where a loose commit or object lives.
+ * loose files are sharded by the first two hex characters of their id, .gitlet/objects/ab/cdef...,
+ * so no folder ever holds more than a small part of the ids.
+ * repositories written before sharding keep their flat files readable until shard-objects moves them.
+ */
+public class ObjectPathUtils {
+    private static final int SHARD_LENGTH = 2;
+
+    /**
+     * @param looseDir .gitlet/commits or .gitlet/objects, of this or a remote repository
+     * @return the loose file of the id, sharded or still flat. it may not exist
+     */
+    public static File looseFile(File looseDir, String id) {
+        File sharded = shardedFile(looseDir, id);
+        if (!sharded.exists()) {
+            File flat = join(looseDir, id);
+            if (flat.exists()) {
+                return flat;
+            }
+        }
+        return sharded;
+    }
+
+    /**
+     * @return the sharded file a new loose commit or object should be written to, its shard folder created
+     */
+    public static File newLooseFile(File looseDir, String id) {
+        File sharded = shardedFile(looseDir, id);
+        File shardDir = sharded.getParentFile();
+        if (!shardDir.exists()) {
+            shardDir.mkdir();
+        }
+        return sharded;
+    }
+
+    private static File shardedFile(File looseDir, String id) {
+        return join(looseDir, id.substring(0, SHARD_LENGTH), id.substring(SHARD_LENGTH));
+    }
+
+    /**
+     * @return ids of all loose files in the folder, sharded or flat, in dictionary order
+     */
+    public static List<String> listLooseIds(File looseDir) {
+        List<String> res = new ArrayList<>();
+        File[] shardDirs = looseDir.listFiles(file -> file.isDirectory() && file.getName().length() == SHARD_LENGTH);
+        if (shardDirs != null) {
+            for (File shardDir : shardDirs) {
+                for (String rest : plainFilenamesIn(shardDir)) {
+                    if (rest.length() == UID_LENGTH - SHARD_LENGTH) {
+                        res.add(shardDir.getName() + rest);
+                    }
+                }
+            }
+        }
+        List<String> flatFiles = plainFilenamesIn(looseDir);
+        if (flatFiles != null) {
+            for (String fileName : flatFiles) {
+                if (fileName.length() == UID_LENGTH) {
+                    res.add(fileName);
+                }
+            }
+        }
+        res.sort(String::compareTo);
+        return res;
+    }
+
+    /**
+     * delete a loose file, and its shard folder once that is empty
+     */
+    public static void deleteLooseFile(File looseFile) {
+        looseFile.delete();
+        File parent = looseFile.getParentFile();
+        if (parent.getName().length() == SHARD_LENGTH) {
+            parent.delete(); // only succeeds when empty
+        }
+    }
+
+    /**
+     * move every flat loose commit and object of this repository into its shard folder
+     */
+    public static void shardObjects() {
+        for (File looseDir : new File[]{COMMITS_DIR, OBJECTS_DIR}) {
+            for (String fileName : plainFilenamesIn(looseDir)) {
+                if (fileName.length() != UID_LENGTH) {
+                    continue;
+                }
+                File flat = join(looseDir, fileName);
+                File sharded = newLooseFile(looseDir, fileName);
+                try {
+                    if (sharded.exists()) {
+                        flat.delete();
+                    } else {
+                        Files.move(flat.toPath(), sharded.toPath());
+                    }
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+            }
+        }
+    }
+}
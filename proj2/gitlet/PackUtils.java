@@ -0,0 +1,514 @@
+package gitlet;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.*;
+
+import static gitlet.GitletConstants.*;
+import static gitlet.Utils.*;
+
+/**
+ * @description class for manipulate packfiles.
+ * a pack stores many objects in one append-only file .gitlet/packs/pack-[sha1].pack,
+ * and keeps a sorted offset index beside it in .gitlet/packs/pack-[sha1].idx,
+ * so reading one object is a binary search over a memory-mapped index instead of one file per object.
+ * <p>
+ * pack: "GPAK" | version | object count | entries(type, id, payload length, payload)... | sha1 of the entries
+ * idx:  "GIDX" | version | fan-out table(256 cumulative counts by first id byte) | sorted ids | offsets
+ * <p>
+ * the payload of an entry is exactly the content its loose file would have.
+ * version 1 packs have no id in their entries, and are still read. since version 2 a pack alone is enough
+ * to rebuild its index, so one pack file is also what fetch and push send with remote.transfer=pack,
+ * see writeTransferPack and receivePack.
+ */
+public class PackUtils {
+    public static final byte OBJ_COMMIT = 1;
+    public static final byte OBJ_BLOB = 2;
+
+    private static final int PACK_MAGIC = 0x4750414b; // "GPAK"
+    private static final int IDX_MAGIC = 0x47494458; // "GIDX"
+    private static final int PACK_VERSION = 2;
+    private static final int IDX_VERSION = 1;
+    private static final int FANOUT_SIZE = 256;
+    private static final int ID_BYTES = UID_LENGTH / 2;
+    private static final int PACK_HEADER_SIZE = 12;
+    private static final int IDX_HEADER_SIZE = 8 + FANOUT_SIZE * 4;
+    /**
+     * type, id and payload length
+     */
+    private static final int ENTRY_HEADER_SIZE = 1 + ID_BYTES + 4;
+    private static final int V1_ENTRY_HEADER_SIZE = 1 + 4;
+
+    /**
+     * packs already mapped in this command, packs folder -> its packs
+     */
+    private static final HashMap<File, List<Pack>> OPENED_PACKS = new HashMap<>();
+
+    /**
+     * forget the opened packs, so the packs folder is listed again, e.g. after another process repacked
+     */
+    static void reset() {
+        OPENED_PACKS.clear();
+    }
+
+    /**
+     * one pack with its index, both mapped read-only
+     */
+    private static class Pack {
+        private final MappedByteBuffer index;
+        private final MappedByteBuffer data;
+        private final int count;
+        private final int entryHeaderSize;
+        private final long lastModified;
+
+        Pack(File idxFile, File packFile) {
+            index = map(idxFile);
+            data = map(packFile);
+            lastModified = packFile.lastModified();
+            if (index.getInt(0) != IDX_MAGIC || data.getInt(0) != PACK_MAGIC) {
+                throw error("Corrupted pack %s.", packFile.getName());
+            }
+            count = index.getInt(IDX_HEADER_SIZE - 4);
+            entryHeaderSize = data.getInt(4) == 1 ? V1_ENTRY_HEADER_SIZE : ENTRY_HEADER_SIZE;
+        }
+
+        /**
+         * @return the position of the id in the sorted index, or -1 if the pack doesn't contain it
+         */
+        int find(byte[] id) {
+            int first = id[0] & 0xff;
+            int lo = first == 0 ? 0 : index.getInt(8 + (first - 1) * 4);
+            int hi = index.getInt(8 + first * 4) - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int cmp = compareIdAt(mid, id);
+                if (cmp == 0) {
+                    return mid;
+                } else if (cmp < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return -1;
+        }
+
+        private int compareIdAt(int position, byte[] id) {
+            int base = IDX_HEADER_SIZE + position * ID_BYTES;
+            for (int i = 0; i < ID_BYTES; i += 1) {
+                int cmp = Integer.compare(index.get(base + i) & 0xff, id[i] & 0xff);
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            return 0;
+        }
+
+        String idAt(int position) {
+            byte[] id = new byte[ID_BYTES];
+            index.get(IDX_HEADER_SIZE + position * ID_BYTES, id);
+            return bytesToId(id, 0);
+        }
+
+        int offsetAt(int position) {
+            return (int) index.getLong(IDX_HEADER_SIZE + count * ID_BYTES + position * 8);
+        }
+
+        byte typeAt(int position) {
+            return data.get(offsetAt(position));
+        }
+
+        ByteBuffer payloadAt(int position) {
+            int offset = offsetAt(position);
+            return data.slice(offset + entryHeaderSize, data.getInt(offset + entryHeaderSize - 4));
+        }
+    }
+
+    private static MappedByteBuffer map(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * open (only once per command) every pack in the packs folder which has an index
+     */
+    private static List<Pack> getPacks(File packsDir) {
+        List<Pack> packs = OPENED_PACKS.get(packsDir);
+        if (packs != null) {
+            return packs;
+        }
+        packs = new ArrayList<>();
+        List<String> fileNames = plainFilenamesIn(packsDir);
+        if (fileNames != null) {
+            for (String fileName : fileNames) {
+                if (fileName.endsWith(".idx")) {
+                    String packName = fileName.substring(0, fileName.length() - ".idx".length()) + ".pack";
+                    packs.add(new Pack(join(packsDir, fileName), join(packsDir, packName)));
+                }
+            }
+        }
+        OPENED_PACKS.put(packsDir, packs);
+        return packs;
+    }
+
+    /**
+     * @return if any pack in the packs folder contains the object
+     */
+    public static boolean hasObject(File packsDir, String id) {
+        byte[] rawId = idToBytes(id);
+        for (Pack pack : getPacks(packsDir)) {
+            if (pack.find(rawId) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * find the payload of a packed object, without copying it out of the mapped pack
+     *
+     * @return the same bytes its loose file would have, or null if no pack contains it
+     */
+    public static ByteBuffer findObject(File packsDir, String id) {
+        byte[] rawId = idToBytes(id);
+        for (Pack pack : getPacks(packsDir)) {
+            int position = pack.find(rawId);
+            if (position >= 0) {
+                return pack.payloadAt(position);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * read the stored form of a packed object, inflating it if it is compressed
+     *
+     * @return the stored form, or null if no pack contains it
+     */
+    public static byte[] readObject(File packsDir, String id) {
+        ByteBuffer payload = findObject(packsDir, id);
+        return payload == null ? null : CompressUtils.decode(payload);
+    }
+
+    /**
+     * @return ids of all packed objects of the type, in dictionary order
+     */
+    public static List<String> listObjectIds(File packsDir, byte type) {
+        return listObjectIds(packsDir, type, Long.MIN_VALUE);
+    }
+
+    /**
+     * @return ids of the packed objects of the type in packs written at or after the time, in dictionary order
+     */
+    public static List<String> listObjectIds(File packsDir, byte type, long modifiedSince) {
+        List<String> res = new ArrayList<>();
+        for (Pack pack : getPacks(packsDir)) {
+            if (pack.lastModified < modifiedSince) {
+                continue;
+            }
+            for (int i = 0; i < pack.count; i += 1) {
+                if (pack.typeAt(i) == type) {
+                    res.add(pack.idAt(i));
+                }
+            }
+        }
+        res.sort(String::compareTo);
+        return res;
+    }
+
+    /**
+     * writes one new pack. entries are streamed into a temporary file,
+     * which only becomes visible once finish() has renamed it and written its index,
+     * or is sent to another repository as it is after finishStream().
+     */
+    public static class PackWriter {
+        private final File packsDir;
+        private final File tempFile;
+        private final DigestOutputStream out;
+        private final TreeMap<String, Long> offsets = new TreeMap<>();
+        private long position = PACK_HEADER_SIZE;
+
+        public PackWriter(File packsDir) {
+            this.packsDir = packsDir;
+            if (!packsDir.exists()) {
+                packsDir.mkdir();
+            }
+            try {
+                tempFile = File.createTempFile("tmp-", ".pack", packsDir);
+                BufferedOutputStream fileOut = new BufferedOutputStream(new FileOutputStream(tempFile));
+                DataOutputStream header = new DataOutputStream(fileOut);
+                header.writeInt(PACK_MAGIC);
+                header.writeInt(PACK_VERSION);
+                header.writeInt(0); // patched by finishStream()
+                out = new DigestOutputStream(fileOut, sha1Digest());
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        public boolean contains(String id) {
+            return offsets.containsKey(id);
+        }
+
+        public void add(String id, byte type, File source) {
+            try (InputStream in = new FileInputStream(source)) {
+                writeEntryHeader(id, type, source.length());
+                in.transferTo(out);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        public void add(String id, byte type, byte[] payload) {
+            try {
+                writeEntryHeader(id, type, payload.length);
+                out.write(payload);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        private void writeEntryHeader(String id, byte type, long length) throws IOException {
+            if (length > Integer.MAX_VALUE || position + ENTRY_HEADER_SIZE + length > Integer.MAX_VALUE) {
+                throw error("Pack would exceed 2 GB; repack in smaller steps.");
+            }
+            offsets.put(id, position);
+            out.write(type);
+            out.write(idToBytes(id));
+            out.write(ByteBuffer.allocate(4).putInt((int) length).array());
+            position += ENTRY_HEADER_SIZE + length;
+        }
+
+        /**
+         * write the checksum trailer and the index, and move the pack to its final name
+         *
+         * @return the new pack file, or null if nothing was added
+         */
+        public File finish() {
+            finishStream();
+            if (offsets.isEmpty()) {
+                tempFile.delete();
+                return null;
+            }
+            return installPack(packsDir, tempFile, offsets);
+        }
+
+        /**
+         * write the checksum trailer, but neither index the pack nor give it its final name
+         *
+         * @return the temporary pack file
+         */
+        public File finishStream() {
+            try {
+                out.on(false);
+                out.write(out.getMessageDigest().digest());
+                out.close();
+                try (FileChannel channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.WRITE)) {
+                    channel.write(ByteBuffer.allocate(4).putInt(offsets.size()).flip(), 8);
+                }
+                return tempFile;
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /**
+     * move a complete pack from the packs folder to its final name, and write its index
+     *
+     * @param offsets id -> offset of the entry, of every object in the pack
+     */
+    private static File installPack(File packsDir, File tempFile, TreeMap<String, Long> offsets) {
+        try {
+            String packName = "pack-" + sha1(String.join("", offsets.keySet()));
+            File packFile = join(packsDir, packName + ".pack");
+            Files.move(tempFile.toPath(), packFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            writeIndex(packsDir, join(packsDir, packName + ".idx"), offsets);
+            OPENED_PACKS.remove(packsDir);
+            return packFile;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private static void writeIndex(File packsDir, File idxFile, TreeMap<String, Long> offsets) throws IOException {
+        File tempIdx = File.createTempFile("tmp-", ".idx", packsDir);
+        try (DataOutputStream idx = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tempIdx)))) {
+            idx.writeInt(IDX_MAGIC);
+            idx.writeInt(IDX_VERSION);
+            int[] fanout = new int[FANOUT_SIZE];
+            for (String id : offsets.keySet()) {
+                fanout[Integer.parseInt(id.substring(0, 2), 16)] += 1;
+            }
+            int total = 0;
+            for (int count : fanout) {
+                total += count;
+                idx.writeInt(total);
+            }
+            for (String id : offsets.keySet()) {
+                idx.write(idToBytes(id));
+            }
+            for (long offset : offsets.values()) {
+                idx.writeLong(offset);
+            }
+        }
+        Files.move(tempIdx.toPath(), idxFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * write the commits and objects of some .gitlet folder, loose or packed, into one pack
+     * in the temporary folder, to be sent to another repository. payloads are copied as they are stored
+     *
+     * @return the pack, not indexed, see receivePack
+     */
+    public static File writeTransferPack(File gitletDir, List<String> commitIds, List<String> objectIds) {
+        File packsDir = join(gitletDir, PACKS_DIR.getName());
+        PackWriter writer = new PackWriter(new File(System.getProperty("java.io.tmpdir")));
+        addObjects(writer, join(gitletDir, COMMITS_DIR.getName()), packsDir, commitIds, OBJ_COMMIT, null);
+        addObjects(writer, join(gitletDir, OBJECTS_DIR.getName()), packsDir, objectIds, OBJ_BLOB, null);
+        return writer.finishStream();
+    }
+
+    /**
+     * copy a pack from writeTransferPack into the packs folder with FileChannel.transferTo, then index it
+     * in one pass over its entries, checking its checksum. it becomes visible only once its index is written
+     *
+     * @return the installed pack file
+     */
+    public static File receivePack(File packsDir, File stream) {
+        if (!packsDir.exists()) {
+            packsDir.mkdir();
+        }
+        try {
+            File tempFile = File.createTempFile("tmp-", ".pack", packsDir);
+            FileUtils.transferFile(stream, tempFile);
+            TreeMap<String, Long> offsets = new TreeMap<>();
+            try (FileChannel channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.READ)) {
+                ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (data.limit() < PACK_HEADER_SIZE + ID_BYTES || data.getInt(0) != PACK_MAGIC
+                        || data.getInt(4) != PACK_VERSION) {
+                    throw error("Corrupted pack received.");
+                }
+                int count = data.getInt(8);
+                int end = data.limit() - ID_BYTES;
+                int offset = PACK_HEADER_SIZE;
+                for (int i = 0; i < count; i += 1) {
+                    if (offset + ENTRY_HEADER_SIZE > end) {
+                        throw error("Corrupted pack received.");
+                    }
+                    int length = data.getInt(offset + ENTRY_HEADER_SIZE - 4);
+                    if (length < 0 || length > end - offset - ENTRY_HEADER_SIZE) {
+                        throw error("Corrupted pack received.");
+                    }
+                    offsets.put(bytesToId(readBytes(data, offset + 1, ID_BYTES), 0), (long) offset);
+                    offset += ENTRY_HEADER_SIZE + length;
+                }
+                MessageDigest digest = sha1Digest();
+                digest.update(data.slice(PACK_HEADER_SIZE, Math.max(0, end - PACK_HEADER_SIZE)));
+                if (offset != end || offsets.size() != count
+                        || !Arrays.equals(digest.digest(), readBytes(data, end, ID_BYTES))) {
+                    throw error("Corrupted pack received.");
+                }
+            } catch (GitletException excp) {
+                tempFile.delete();
+                throw excp;
+            }
+            return installPack(packsDir, tempFile, offsets);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private static byte[] readBytes(ByteBuffer data, int offset, int length) {
+        byte[] bytes = new byte[length];
+        data.get(offset, bytes);
+        return bytes;
+    }
+
+    /**
+     * fold every loose commit and object into one new pack, then delete the loose files
+     */
+    public static void repack() {
+        List<String> commitIds = ObjectPathUtils.listLooseIds(COMMITS_DIR);
+        List<String> objectIds = ObjectPathUtils.listLooseIds(OBJECTS_DIR);
+        PackWriter writer = new PackWriter(PACKS_DIR);
+        List<File> packedLooseFiles = new LinkedList<>();
+        addLooseFiles(writer, COMMITS_DIR, commitIds, OBJ_COMMIT, packedLooseFiles);
+        addLooseFiles(writer, OBJECTS_DIR, objectIds, OBJ_BLOB, packedLooseFiles);
+        writer.finish();
+        for (File looseFile : packedLooseFiles) {
+            ObjectPathUtils.deleteLooseFile(looseFile);
+        }
+    }
+
+    /**
+     * write the commits and objects, loose or packed, into one new pack, then delete every other pack
+     * and the loose files of the packed ones. objects in neither list are dropped with the old packs
+     */
+    public static void rewritePacks(List<String> commitIds, List<String> objectIds) {
+        List<String> oldPackFiles = plainFilenamesIn(PACKS_DIR);
+        PackWriter writer = new PackWriter(PACKS_DIR);
+        List<File> packedLooseFiles = new LinkedList<>();
+        addObjects(writer, COMMITS_DIR, PACKS_DIR, commitIds, OBJ_COMMIT, packedLooseFiles);
+        addObjects(writer, OBJECTS_DIR, PACKS_DIR, objectIds, OBJ_BLOB, packedLooseFiles);
+        File packFile = writer.finish();
+        String packName = packFile == null ? null : packFile.getName().replace(".pack", "");
+        for (String fileName : oldPackFiles == null ? List.<String>of() : oldPackFiles) {
+            if ((fileName.endsWith(".pack") || fileName.endsWith(".idx")) && !fileName.startsWith(packName + ".")) {
+                join(PACKS_DIR, fileName).delete();
+            }
+        }
+        for (File looseFile : packedLooseFiles) {
+            ObjectPathUtils.deleteLooseFile(looseFile);
+        }
+        OPENED_PACKS.remove(PACKS_DIR);
+    }
+
+    /**
+     * @param packedLooseFiles collects the loose files which were packed, may be null
+     */
+    private static void addObjects(PackWriter writer, File looseDir, File packsDir, List<String> ids, byte type,
+                                   List<File> packedLooseFiles) {
+        for (String id : ids) {
+            if (writer.contains(id)) {
+                continue;
+            }
+            File looseFile = ObjectPathUtils.looseFile(looseDir, id);
+            if (looseFile.exists()) {
+                writer.add(id, type, looseFile);
+                if (packedLooseFiles != null) {
+                    packedLooseFiles.add(looseFile);
+                }
+                continue;
+            }
+            ByteBuffer payload = findObject(packsDir, id);
+            if (payload != null) {
+                byte[] bytes = new byte[payload.remaining()];
+                payload.get(bytes);
+                writer.add(id, type, bytes);
+            }
+        }
+    }
+
+    private static void addLooseFiles(PackWriter writer, File dir, List<String> ids, byte type,
+                                      List<File> packedLooseFiles) {
+        for (String id : ids) {
+            File looseFile = ObjectPathUtils.looseFile(dir, id);
+            if (!writer.contains(id) && !hasObject(PACKS_DIR, id)) {
+                writer.add(id, type, looseFile);
+            }
+            packedLooseFiles.add(looseFile);
+        }
+    }
+}
@@ -1,25 +1,39 @@
 package gitlet;
 
 import java.io.File;
-import java.io.IOException;
 import java.util.*;
+import java.util.function.Consumer;
 
 import static gitlet.GitletConstants.BRANCHES_DIR;
+import static gitlet.GitletConstants.COMMITS_DIR;
+import static gitlet.GitletConstants.GITLET_DIR;
 import static gitlet.GitletConstants.REMOTE_FILE;
+import static gitlet.GitletConstants.TRACE;
 import static gitlet.Utils.*;
 
 public class RemoteUtils {
-    //the remotename corresponds to the remotefolder
-    public static TreeMap<String, String> remoteLocationMap = new TreeMap<>();
-
-    static {
-        if (remoteRefsInitialized()) {
-            remoteLocationMap = readObject(REMOTE_FILE, TreeMap.class);
+    //the remotename corresponds to the remotefolder, read from REMOTE_FILE on first use
+    private static TreeMap<String, String> remoteLocationMap;
+
+    private static TreeMap<String, String> getRemoteLocationMap() {
+        if (remoteLocationMap == null) {
+            remoteLocationMap = remoteRefsInitialized() ? readObject(REMOTE_FILE, TreeMap.class) : new TreeMap<>();
+            if (TRACE) {
+                System.err.printf("remotes: %d read%n", remoteLocationMap.size());
+            }
         }
+        return remoteLocationMap;
+    }
+
+    /**
+     * forget the loaded remotes, so they are read again, e.g. after another process changed them
+     */
+    static void reset() {
+        remoteLocationMap = null;
     }
 
     public static void saveRemoteLocationMap() {
-        writeObject(REMOTE_FILE, remoteLocationMap);
+        writeObject(REMOTE_FILE, getRemoteLocationMap());
     }
 
     public static boolean remoteRefsInitialized() {
@@ -27,7 +41,7 @@ public class RemoteUtils {
     }
 
     public static String getRemotePath(String remoteName) {
-        return remoteLocationMap.get(remoteName);
+        return getRemoteLocationMap().get(remoteName);
     }
 
     public static File getRemoteGitletFolder(String remoteName) {
@@ -35,7 +49,7 @@ public class RemoteUtils {
     }
 
     public static boolean isRemoteAdded(String remoteName) {
-        return remoteLocationMap.containsKey(remoteName);
+        return getRemoteLocationMap().containsKey(remoteName);
     }
 
     public static File remoteCommitsFolder(String remoteName) {
@@ -50,20 +64,31 @@ public class RemoteUtils {
         return join(getRemoteGitletFolder(remoteName), "objects");
     }
 
-    public static void copyCommitFileToRemote(String commitId, String remoteName) {
+    public static File remotePacksFolder(String remoteName) {
+        return join(getRemoteGitletFolder(remoteName), "packs");
+    }
+
+    public static void copyCommitFileToRemote(String commitId, String remoteName, TransferStats stats) {
         if (!isRemoteAdded(remoteName)) {
             return;
         }
-        File remoteCommitsFolder = remoteCommitsFolder(remoteName);
-        File remoteCommitFile = join(remoteCommitsFolder, commitId);
-        writeObject(remoteCommitFile, CommitUtils.readCommit(commitId));
+        File remoteCommitFile = ObjectPathUtils.newLooseFile(remoteCommitsFolder(remoteName), commitId);
+        File commitFile = ObjectPathUtils.looseFile(COMMITS_DIR, commitId);
+        if (commitFile.exists()) {
+            FileUtils.transferFile(commitFile, remoteCommitFile);
+        } else {
+            CompressUtils.writeObject(remoteCommitFile, CommitUtils.encodeCommit(CommitUtils.readCommit(commitId)));
+        }
+        CommitIdIndex.of(getRemoteGitletFolder(remoteName)).add(commitId);
+        CommitMessageIndex.of(getRemoteGitletFolder(remoteName))
+                .add(commitId, CommitUtils.readCommit(commitId).getMessage());
+        stats.addCommit(remoteCommitFile);
     }
 
-    public static void copyCommitFileFromRemote(String commitId, String remoteName) {
-        File remoteCommitsFolder = remoteCommitsFolder(remoteName);
-        File remoteCommitFile = join(remoteCommitsFolder, commitId);
-        Commit commit = readObject(remoteCommitFile, Commit.class);
+    public static void copyCommitFileFromRemote(String commitId, String remoteName, TransferStats stats) {
+        Commit commit = readRemoteCommit(commitId, remoteName);
         CommitUtils.saveCommit(commit);
+        stats.addCommit(ObjectPathUtils.looseFile(COMMITS_DIR, commitId));
     }
 
     public static void copyBranchFileToRemote(String branchName, String remoteName) {
@@ -79,18 +104,119 @@ public class RemoteUtils {
         writeContents(remoteBranchFile, branchContent);
     }
 
-    public static void copyObjectFileToRemote(String sha1, String remoteName) {
-        String fileContent = FileUtils.getFileContent(sha1);
-        File remoteObjectFolder = remoteObjectsFolder(remoteName);
-        File remoteObjectFile = join(remoteObjectFolder, sha1);
-        writeContents(remoteObjectFile, fileContent);
+    public static void copyObjectFileToRemote(String sha1, String remoteName, TransferStats stats) {
+        FileUtils.copyObject(GITLET_DIR, sha1, getRemoteGitletFolder(remoteName), stats);
+    }
+
+    public static void copyObjectFileFromRemote(String sha1, String remoteName, TransferStats stats) {
+        FileUtils.copyObject(getRemoteGitletFolder(remoteName), sha1, GITLET_DIR, stats);
+    }
+
+    /**
+     * @return if remote.transfer asks fetch and push to send one pack instead of one file per object
+     */
+    private static boolean transfersPack() {
+        String mode = ConfigUtils.get(ConfigUtils.TRANSFER_KEY);
+        if (mode == null || mode.equals("loose")) {
+            return false;
+        } else if (mode.equals("pack")) {
+            return true;
+        }
+        throw error("remote.transfer must be loose or pack.");
+    }
+
+    /**
+     * pass the tree or the files of a commit to copy, see copyTree
+     */
+    private static void copyCommitObjects(File fromGitletDir, Commit commit, File toGitletDir,
+                                          Set<String> copied, Consumer<String> copy) {
+        if (commit.getTreeId() != null) {
+            copyTree(fromGitletDir, commit.getTreeId(), toGitletDir, copied, copy);
+            return;
+        }
+        for (String fileId : commit.getFileVersionMap().values()) {
+            if (copied.add(fileId)) {
+                copy.accept(fileId);
+            }
+        }
     }
 
-    public static void copyObjectFileFromRemote(String sha1, String remoteName) {
-        File remoteObjectFolder = remoteObjectsFolder(remoteName);
-        File remoteObjectFile = join(remoteObjectFolder, sha1);
-        String fileContent = readContentsAsString(remoteObjectFile);
-        FileUtils.writeGitletObjectsFile(fileContent);
+    /**
+     * pass a tree, with the subtrees and files it lists, to copy, unless the target has it already.
+     * the children go before the tree, so a tree found in the target means everything below it is there too
+     *
+     * @param copied ids copied or found in the target so far, so an object shared by many commits is looked at once
+     */
+    private static void copyTree(File fromGitletDir, String treeId, File toGitletDir,
+                                 Set<String> copied, Consumer<String> copy) {
+        if (!copied.add(treeId) || FileUtils.hasObject(toGitletDir, treeId)) {
+            return;
+        }
+        List<String> fileIds = new ArrayList<>();
+        List<String> subtreeIds = new ArrayList<>();
+        TreeUtils.listChildren(fromGitletDir, treeId, fileIds, subtreeIds);
+        for (String subtreeId : subtreeIds) {
+            copyTree(fromGitletDir, subtreeId, toGitletDir, copied, copy);
+        }
+        for (String fileId : fileIds) {
+            if (copied.add(fileId)) {
+                copy.accept(fileId);
+            }
+        }
+        copy.accept(treeId);
+    }
+
+    /**
+     * send the commits, and the objects they need which the target doesn't have, as one pack.
+     * the pack only becomes visible in the target once it is complete, with all its commits at once
+     */
+    private static void sendPack(File fromGitletDir, List<String> commitIds, File toGitletDir, TransferStats stats) {
+        if (commitIds.isEmpty()) {
+            return;
+        }
+        Set<String> copied = new HashSet<>();
+        List<String> objectIds = new ArrayList<>();
+        for (String commitId : commitIds) {
+            copyCommitObjects(fromGitletDir, CommitUtils.readCommit(fromGitletDir, commitId), toGitletDir, copied,
+                    id -> listPackedObject(fromGitletDir, id, toGitletDir, copied, objectIds));
+        }
+        File stream = PackUtils.writeTransferPack(fromGitletDir, commitIds, objectIds);
+        File packFile;
+        try {
+            packFile = PackUtils.receivePack(join(toGitletDir, "packs"), stream);
+        } finally {
+            stream.delete();
+        }
+        for (String commitId : commitIds) {
+            CommitIdIndex.of(toGitletDir).add(commitId);
+            CommitMessageIndex.of(toGitletDir).add(commitId,
+                    CommitUtils.readCommit(fromGitletDir, commitId).getMessage());
+        }
+        stats.addPack(packFile, commitIds.size(), objectIds.size());
+    }
+
+    /**
+     * add an object the target doesn't have to the objects of a pack. a pack keeps objects as they are stored,
+     * so the chunks of a chunked object and the base of a delta go too, unless the target has them
+     */
+    private static void listPackedObject(File fromGitletDir, String id, File toGitletDir,
+                                         Set<String> copied, List<String> objectIds) {
+        if (FileUtils.hasObject(toGitletDir, id)) {
+            return;
+        }
+        objectIds.add(id);
+        byte[] head = FileUtils.readStoredHead(fromGitletDir, id, DeltaUtils.BASE_HEADER_SIZE);
+        List<String> needed = new ArrayList<>();
+        if (ChunkUtils.isChunked(head)) {
+            needed.addAll(ChunkUtils.chunkIds(FileUtils.readStoredObject(fromGitletDir, id)));
+        } else if (DeltaUtils.baseIdOf(head) != null) {
+            needed.add(DeltaUtils.baseIdOf(head));
+        }
+        for (String neededId : needed) {
+            if (copied.add(neededId)) {
+                listPackedObject(fromGitletDir, neededId, toGitletDir, copied, objectIds);
+            }
+        }
     }
 
     public static String readRemoteHead(String remoteName) {
@@ -114,25 +240,53 @@ public class RemoteUtils {
         if (commitId == null) {
             return null;
         }
-        return readObject(join(remoteCommitsFolder(remoteName), commitId), Commit.class);
+        return CommitUtils.readCommit(getRemoteGitletFolder(remoteName), commitId);
     }
 
     public static List<Commit> remoteCommitTraceBack(String commitId, String remoteName) {
-        Commit commit = readRemoteCommit(commitId, remoteName);
         List<Commit> res = new LinkedList<>();
-        while (commit != null) {
-            res.add(commit);
-            commit = readRemoteCommit(commit.getParentId(), remoteName);
+        for (String id : remoteCommitIdTraceBack(commitId, remoteName)) {
+            res.add(readRemoteCommit(id, remoteName));
         }
         return res;
     }
 
+    /**
+     * trace back the remote history with the commit graph of the remote repository
+     */
     public static List<String> remoteCommitIdTraceBack(String commitId, String remoteName) {
-        Commit commit = readRemoteCommit(commitId, remoteName);
-        List<String> res = new LinkedList<>();
-        while (commit != null) {
-            res.add(CommitUtils.getCommitId(commit));
-            commit = readRemoteCommit(commit.getParentId(), remoteName);
+        return CommitGraph.of(getRemoteGitletFolder(remoteName)).firstParentHistory(commitId);
+    }
+
+    /**
+     * the commits reachable from a commit of one repository, through both parents, which another doesn't have.
+     * the walk stops at every commit the target has: fetch and push copy a commit only after its parents
+     * and objects, so everything a commit found there reaches is there too
+     *
+     * @return the missing commit ids, parents before children
+     */
+    public static List<String> missingCommitIds(File fromGitletDir, String commitId, File toGitletDir) {
+        CommitGraph graph = CommitGraph.of(fromGitletDir);
+        BitSet visited = new BitSet(graph.size());
+        BitSet missing = new BitSet(graph.size());
+        Deque<Integer> stack = new ArrayDeque<>();
+        stack.push(graph.positionOf(commitId));
+        while (!stack.isEmpty()) {
+            int p = stack.pop();
+            if (p == CommitGraph.NO_PARENT || visited.get(p)) {
+                continue;
+            }
+            visited.set(p);
+            if (!CommitUtils.hasCommit(toGitletDir, graph.idAt(p))) {
+                missing.set(p);
+                stack.push(graph.parentOf(p));
+                stack.push(graph.secondParentOf(p));
+            }
+        }
+        // the graph records every commit after its parents
+        List<String> res = new ArrayList<>(missing.cardinality());
+        for (int p = missing.nextSetBit(0); p >= 0; p = missing.nextSetBit(p + 1)) {
+            res.add(graph.idAt(p));
         }
         return res;
     }
@@ -146,13 +300,6 @@ public class RemoteUtils {
     }
 
     public static void addRemote(String remoteName, String remotePath) {
-        if (!REMOTE_FILE.exists()) {
-            try {
-                REMOTE_FILE.createNewFile();
-            } catch (IOException e) {
-                throw new RuntimeException("failed to create remote file");
-            }
-        }
         if (isRemoteAdded(remoteName)) {
             System.out.println("A remote with that name already exist.");
             return;
@@ -165,7 +312,7 @@ public class RemoteUtils {
             convertedPath.append(File.separator); // the correct separator, windows for \, linux for /
         }
         convertedPath.delete(convertedPath.length() - 1, convertedPath.length());
-        remoteLocationMap.put(remoteName, String.valueOf(convertedPath));
+        getRemoteLocationMap().put(remoteName, String.valueOf(convertedPath));
         saveRemoteLocationMap();
     }
 
@@ -177,7 +324,7 @@ public class RemoteUtils {
             System.out.println("A remote with that name does not exist.");
             return;
         }
-        remoteLocationMap.remove(remoteName);
+        getRemoteLocationMap().remove(remoteName);
         saveRemoteLocationMap();
     }
 
@@ -186,32 +333,39 @@ public class RemoteUtils {
             System.out.println("Remote directory not found.");
             return;
         }
-        String remoteHead = readRemoteHead(remoteName);
         String remoteHeadCommitId = readRemoteBranch(remoteBranchName, remoteName);
-        Commit currentCommit = CommitUtils.readCommit(Repository.getHeadCommitId());
+        String headCommitId = Repository.getHeadCommitId();
 
-        if (Repository.getHeadCommitId().equals(remoteHeadCommitId)) {
+        if (headCommitId.equals(remoteHeadCommitId)) {
             return;
         }
 
-        List<String> commitIdAppending = CommitUtils.collectCommitsTopoOrder(Repository.getHeadCommitId(), remoteHeadCommitId);
-        List<String> historyCommitId = CommitUtils.commitAncestors(currentCommit, new HashSet<>());
-        if (!historyCommitId.contains(remoteHeadCommitId)) {
+        if (remoteHeadCommitId != null && (!CommitUtils.hasCommit(remoteHeadCommitId)
+                || !CommitGraph.of(GITLET_DIR).isAncestor(remoteHeadCommitId, headCommitId))) {
             System.out.println("Please pull down remote changes before pushing.");
             return;
         }
-
-        for (String commitId : commitIdAppending) {
-            copyCommitFileToRemote(commitId, remoteName);
-            Commit commit = CommitUtils.readCommit(commitId);
-            HashMap<String, String> fileVersionMaps = commit.getFileVersionMap();
-            for (String fileName : fileVersionMaps.keySet()) {
-                copyObjectFileToRemote(fileVersionMaps.get(fileName), remoteName);
+        File remoteGitletDir = getRemoteGitletFolder(remoteName);
+        List<String> commitIdAppending = missingCommitIds(GITLET_DIR, headCommitId, remoteGitletDir);
+
+        // objects before their commit, and parents before children, see missingCommitIds
+        TransferStats stats = new TransferStats();
+        if (transfersPack()) {
+            sendPack(GITLET_DIR, commitIdAppending, remoteGitletDir, stats);
+        } else {
+            Set<String> copied = new HashSet<>();
+            for (String commitId : commitIdAppending) {
+                copyCommitObjects(GITLET_DIR, CommitUtils.readCommit(commitId), remoteGitletDir, copied,
+                        id -> FileUtils.copyObject(GITLET_DIR, id, remoteGitletDir, stats));
+                copyCommitFileToRemote(commitId, remoteName, stats);
             }
         }
 
         copyBranchFileToRemote(remoteBranchName, remoteName);
         writeRemoteHead(remoteName, remoteBranchName);
+        if (TRACE) {
+            System.err.printf("push: %s%n", stats);
+        }
     }
 
     public static void fetch(String remoteName, String remoteBranchName) {
@@ -225,18 +379,26 @@ public class RemoteUtils {
         }
 
         String remoteCommitId = readRemoteBranch(remoteBranchName, remoteName);
-        List<String> allTracedCommitIds = remoteCommitIdTraceBack(remoteCommitId, remoteName);
-
-        for (String commitId : allTracedCommitIds) {
-            copyCommitFileFromRemote(commitId, remoteName);
-            Commit commit = CommitUtils.readCommit(commitId);
-            HashMap<String, String> fileVersionMap = commit.getFileVersionMap();
-            for (String fileName : fileVersionMap.keySet()) {
-                copyObjectFileFromRemote(fileVersionMap.get(fileName), remoteName);
+        File remoteGitletDir = getRemoteGitletFolder(remoteName);
+        List<String> missingCommitIds = missingCommitIds(remoteGitletDir, remoteCommitId, GITLET_DIR);
+
+        // objects before their commit, and parents before children, see missingCommitIds
+        TransferStats stats = new TransferStats();
+        if (transfersPack()) {
+            sendPack(remoteGitletDir, missingCommitIds, GITLET_DIR, stats);
+        } else {
+            Set<String> copied = new HashSet<>();
+            for (String commitId : missingCommitIds) {
+                copyCommitObjects(remoteGitletDir, readRemoteCommit(commitId, remoteName), GITLET_DIR, copied,
+                        id -> FileUtils.copyObject(remoteGitletDir, id, GITLET_DIR, stats));
+                copyCommitFileFromRemote(commitId, remoteName, stats);
             }
         }
 
         BranchUtils.saveCommitId(remoteName + "/" + remoteBranchName, remoteCommitId);
+        if (TRACE) {
+            System.err.printf("fetch: %s%n", stats);
+        }
     }
 
     public static void pull(String remoteName, String remoteBranchName) {
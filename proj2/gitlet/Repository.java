@@ -1,10 +1,21 @@
 package gitlet;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 
 import static gitlet.GitletConstants.*;
 import static gitlet.IndexUtils.*;
@@ -16,15 +27,28 @@ import static gitlet.Utils.*;
  */
 public class Repository {
     /**
-     * HEAD pointer,which points to current branch name
+     * HEAD pointer,which points to current branch name. read from the HEAD file on first use, see getHead()
      */
-    public static String HEAD;
+    private static String HEAD;
 
-    //if .gitlet have been initialized, we have to set HEAD to proper branch. */
-    static {
-        if (isInitialized()) {
+    /**
+     * @return the current branch name, null if this project isn't gitlet initialized
+     */
+    static String getHead() {
+        if (HEAD == null && isInitialized()) {
             HEAD = new String(readContents(HEAD_FILE));
+            if (TRACE) {
+                System.err.printf("HEAD: %s read%n", HEAD);
+            }
         }
+        return HEAD;
+    }
+
+    /**
+     * forget the current branch name, so the HEAD file is read again, e.g. after another process changed it
+     */
+    static void reset() {
+        HEAD = null;
     }
 
     /**
@@ -54,13 +78,13 @@ public class Repository {
         try {
             INDEX_FILE.createNewFile();
             HEAD_FILE.createNewFile();
-            STAGED_FILE.createNewFile();
         } catch (IOException excp) {
-            throw new RuntimeException("failed to create INDEX, HEAD and STAGED file.");
+            throw new RuntimeException("failed to create INDEX and HEAD file.");
         }
 
         COMMITS_DIR.mkdir();
         OBJECTS_DIR.mkdir();
+        PACKS_DIR.mkdir();
         BRANCHES_DIR.mkdir();
 
         Commit initialCommit = CommitUtils.makeEmptyCommit("initial commit");
@@ -71,89 +95,183 @@ public class Repository {
         setHEAD(MASTER_BRANCH_NAME);
     }
 
-    public static void add(String fileName) {
-        if (!join(CWD, fileName).exists()) {
-            System.out.println("File does not exist.");
-            return;
+    /**
+     * stage every file of the paths, which may be file names, globs or "." for all files.
+     * the files are hashed in parallel and the index is written once.
+     * if some path matches no file, nothing is staged
+     */
+    public static void add(String[] paths) {
+        List<String> cwdFileNames = plainFilenamesIn(CWD);
+        Set<String> fileNames = new TreeSet<>();
+        for (String path : paths) {
+            List<String> matched = matchPaths(path, cwdFileNames);
+            if (matched.isEmpty()) {
+                System.out.println("File does not exist.");
+                return;
+            }
+            fileNames.addAll(matched);
         }
 
-        if (indexMap.containsKey(fileName)) {
-            if (FileUtils.hasSameSHA1(fileName, indexMap.get(fileName))) {
-                return;
+        HashMap<String, String> fileSHA1s = WorkingTree.hash(fileNames);
+        for (String fileName : fileNames) {
+            String fileSHA1 = fileSHA1s.get(fileName);
+            if (!fileSHA1.equals(getIndexMap().get(fileName))) {
+                IndexUtils.stageFile(fileName, fileSHA1);
             }
         }
-        IndexUtils.stageFile(fileName);
         IndexUtils.saveIndex();
     }
 
+    /**
+     * @return the file names the path means: the path itself if it is one of them, all of them for ".",
+     * or those matching a glob
+     */
+    private static List<String> matchPaths(String path, Collection<String> fileNames) {
+        if (fileNames.contains(path)) {
+            return List.of(path);
+        }
+        if (path.equals(".")) {
+            return new ArrayList<>(fileNames);
+        }
+        if (!isGlob(path)) {
+            return List.of();
+        }
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + path);
+        List<String> res = new ArrayList<>();
+        for (String fileName : fileNames) {
+            if (matcher.matches(Paths.get(fileName))) {
+                res.add(fileName);
+            }
+        }
+        return res;
+    }
+
+    private static boolean isGlob(String path) {
+        return path.indexOf('*') >= 0 || path.indexOf('?') >= 0 || path.indexOf('[') >= 0
+                || path.indexOf('{') >= 0;
+    }
+
     public static void commit(String commitMessage) {
+        commit(commitMessage, null);
+    }
+
+    /**
+     * @param secondParentId the merged branch commit, null for a normal commit
+     */
+    private static void commit(String commitMessage, String secondParentId) {
         if (commitMessage.isEmpty()) {
             System.out.println("Please enter a commit message.");
             return;
         }
         String currentCommitId = getHeadCommitId();
         Commit currentCommit = CommitUtils.readCommit(currentCommitId);
-        HashMap<String, String> fileVersionMap = currentCommit.getFileVersionMap();
-        if (indexMap.equals(fileVersionMap)) {
+        String treeId = IndexUtils.writeIndexTree();
+        boolean unchanged = currentCommit.getTreeId() != null
+                ? treeId.equals(currentCommit.getTreeId())
+                : getIndexMap().equals(currentCommit.getFileVersionMap());
+        if (unchanged) {
             // note: this implementation is different from the proj2 doc
-            //this is simple but slow and not implements the tree sturcture
             System.out.println("No changes added to the commit.");
         }
-        Commit newCommit = CommitUtils.makeCommit(commitMessage, currentCommitId, indexMap);
-        CommitUtils.createObjectFile(currentCommit, newCommit, stagedFileContent);
-        stagedFileContent.clear();
-        IndexUtils.saveIndex();
+        Commit newCommit = CommitUtils.makeCommit(commitMessage, currentCommitId, null);
+        newCommit.setTree(GITLET_DIR, treeId);
+        newCommit.setSecondParentId(secondParentId);
+        IndexUtils.compactIndex(treeId);
         String newCommitId = CommitUtils.saveCommit(newCommit);
-        BranchUtils.saveCommitId(HEAD, newCommitId);
+        BranchUtils.saveCommitId(getHead(), newCommitId);
     }
 
-    public static void rm(String fileName) {
+    /**
+     * unstage and remove every staged or tracked file of the paths, which may be file names,
+     * globs or "." for all of them, writing the index once.
+     * if some path matches no such file, nothing is removed
+     */
+    public static void rm(String[] paths) {
         Commit commit = CommitUtils.readCommit(getHeadCommitId());
-        boolean staged = isStaged(fileName, commit);
-        boolean tracked = CommitUtils.isTrackedByCommit(commit, fileName);
-        if (!staged && !tracked) {
-            System.out.println("No reason to remove the file.");
-            return;
+        Set<String> removable = new HashSet<>(commit.getFileVersionMap().keySet());
+        for (String fileName : getIndexMap().keySet()) {
+            if (isStaged(fileName, commit)) {
+                removable.add(fileName);
+            }
         }
-        IndexUtils.unstageFile(fileName);
-        IndexUtils.saveIndex();
-        if (tracked) {
-            Utils.restrictedDelete(join(CWD, fileName));
+        Set<String> fileNames = new TreeSet<>();
+        for (String path : paths) {
+            List<String> matched = matchPaths(path, removable);
+            if (matched.isEmpty()) {
+                System.out.println("No reason to remove the file.");
+                return;
+            }
+            fileNames.addAll(matched);
         }
-    }
 
-    public static void log() {
-        Commit currentcommit = CommitUtils.readCommit(getHeadCommitId());
-        List<Commit> commits = CommitUtils.commitTraceBack(currentcommit);
-        for (Commit commit : commits) {
-            commit.printCommitInfo();
+        for (String fileName : fileNames) {
+            IndexUtils.unstageFile(fileName);
+        }
+        IndexUtils.saveIndex();
+        for (String fileName : fileNames) {
+            if (CommitUtils.isTrackedByCommit(commit, fileName)) {
+                Utils.restrictedDelete(join(CWD, fileName));
+            }
         }
     }
 
-    public static void globalLog() {
-        List<String> commits = plainFilenamesIn(COMMITS_DIR);
-        if (commits == null || commits.isEmpty()) {
-            return;
-        }
-        for (String commitID : commits) {
-            CommitUtils.readCommit(commitID).printCommitInfo();
+    /**
+     * print the first parent history of head, reading each commit only when it is printed or filtered.
+     * the walk doesn't stop at a commit older than --since: a fetched commit may come from a clock that was
+     * behind, so a newer commit can still be further back in the history
+     */
+    public static void log(LogOptions options) {
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out)));
+        try {
+            Iterator<Commit> history = CommitUtils.firstParentIterator(getHeadCommitId());
+            int printed = 0;
+            while (printed < options.getLimit() && history.hasNext()) {
+                Commit commit = history.next();
+                if (options.includes(commit.getCommitTime().getTime())) {
+                    commit.printCommitInfo(out);
+                    printed += 1;
+                }
+            }
+        } finally {
+            out.flush();
         }
     }
 
-    public static void find(String commitMessage) {
-        List<String> commits = plainFilenamesIn(COMMITS_DIR);
-        if (commits == null || commits.isEmpty()) {
+    public static void globalLog(LogOptions options) {
+        if (options.isFirstParent()) {
+            System.out.println(INCORRECT_OPERANDS_WARNING);
             return;
         }
-        boolean printFlag = false;
-        for (String commitId : commits) {
-            Commit commit = CommitUtils.readCommit(commitId);
-            if (commit.getMessage().equals(commitMessage)) {
-                System.out.println(commitId);
-                printFlag = true;
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out)));
+        try {
+            int printed = 0;
+            for (String commitID : CommitUtils.getAllCommitIds()) {
+                if (printed >= options.getLimit()) {
+                    break;
+                }
+                Commit commit = CommitUtils.readCommit(commitID);
+                if (options.includes(commit.getCommitTime().getTime())) {
+                    commit.printCommitInfo(out);
+                    printed += 1;
+                }
             }
+        } finally {
+            out.flush();
         }
-        if (!printFlag) {
+    }
+
+    /**
+     * print ids of all commits with the message, looked up in the message index.
+     * find --grep [text] prints those whose message contains the text
+     */
+    public static void find(String[] args) {
+        CommitMessageIndex messageIndex = CommitMessageIndex.of(GITLET_DIR);
+        List<String> commitIds = args.length == 1
+                ? messageIndex.findByMessage(args[0]) : messageIndex.findBySubstring(args[1]);
+        for (String commitId : commitIds) {
+            System.out.println(commitId);
+        }
+        if (commitIds.isEmpty()) {
             System.out.println("Found no commit with that message.");
         }
     }
@@ -163,7 +281,7 @@ public class Repository {
         List<String> allBranchNames = BranchUtils.getAllBranchName();
         System.out.println("=== Branches ===");
         for (String branch : allBranchNames) {
-            System.out.println((HEAD.equals(branch) ? "*" : "") + branch);
+            System.out.println((getHead().equals(branch) ? "*" : "") + branch);
         }
         System.out.println();
 
@@ -182,8 +300,9 @@ public class Repository {
 
         /**print Modifications Not Staged For Commit files */
         System.out.println("=== Modifications Not Staged For Commit ===");
-        List<StringBuffer> modifiedNotStaged = IndexUtils.modifiedNotStagedForCommit(commit);
-        List<StringBuffer> deletedNotStaged = IndexUtils.deletedNotStagedForCommit(commit);
+        WorkingTree tree = WorkingTree.scan(commit);
+        List<StringBuffer> modifiedNotStaged = IndexUtils.modifiedNotStagedForCommit(commit, tree);
+        List<StringBuffer> deletedNotStaged = IndexUtils.deletedNotStagedForCommit(commit, tree);
 
         modifiedNotStaged.forEach(s -> s.append("(modified)"));
         deletedNotStaged.forEach(s -> s.append("(deleted)"));
@@ -193,10 +312,11 @@ public class Repository {
         System.out.println();
 
         /** print untracked files */
-        List<String> untrackedFileNames = IndexUtils.getUntrackedFiles(commit);
+        List<String> untrackedFileNames = IndexUtils.getUntrackedFiles(commit, tree);
         System.out.println("=== Untracked Files ===");
         untrackedFileNames.forEach(System.out::println);
         System.out.println();
+        IndexUtils.saveStats();
     }
 
     public static void checkout(String... args) {
@@ -233,8 +353,7 @@ public class Repository {
             return;
         }
         String fileSHA1 = commit.getFileVersionMap().get(fileName);
-        String fileContent = FileUtils.getFileContent(fileSHA1);
-        FileUtils.writeCWDFile(fileName, fileContent);
+        FileUtils.checkoutCWDFile(fileName, fileSHA1);
     }
 
     public static void checkoutBranch(Commit commit, String branchName) {
@@ -242,7 +361,7 @@ public class Repository {
             System.out.println("No such branch exists");
             return;
         }
-        if (branchName.equals(HEAD)) {
+        if (branchName.equals(getHead())) {
             System.out.println("No need to checkout the current branch");
             return;
         }
@@ -263,7 +382,13 @@ public class Repository {
     public static void restoreCommit(Commit commit) {
         Commit currentCommit = CommitUtils.readCommit(getHeadCommitId());
         // pre-check, avoid missing  file in CWD but not saved in head commit
-        for (String fileName : commit.getFileVersionMap().keySet()) {
+        // with trees on both sides, only files added by the commit can be untracked ones
+        Collection<String> checkedFileNames = commit.getFileVersionMap().keySet();
+        if (currentCommit.getTreeId() != null && commit.getTreeId() != null) {
+            checkedFileNames = TreeUtils.diff(GITLET_DIR, currentCommit.getTreeId(), commit.getTreeId())
+                    .entrySet().stream().filter(e -> e.getValue() != null).map(Map.Entry::getKey).toList();
+        }
+        for (String fileName : checkedFileNames) {
             if (FileUtils.isOverwritingOrDeletingCWDUntracked(fileName, currentCommit)) {
                 System.out.println(MERGE_MODIFY_UNTRACKED_WARNING);
                 return;
@@ -271,8 +396,7 @@ public class Repository {
         }
 
         FileUtils.restoreCommitFiles(commit);
-        indexMap = commit.getFileVersionMap();
-        stagedFileContent.clear();
+        IndexUtils.replaceIndex(new HashMap<>(commit.getFileVersionMap()), commit.getTreeId());
         IndexUtils.saveIndex();
     }
 
@@ -295,7 +419,7 @@ public class Repository {
             System.out.println("A branch with that name does not exist.");
             return;
         }
-        if (HEAD.equals(branchName)) {
+        if (getHead().equals(branchName)) {
             System.out.println("Cannot remove the current branch.");
             return;
         }
@@ -310,7 +434,7 @@ public class Repository {
         }
         String commitId = CommitUtils.getCommitId(commit);
         restoreCommit(commit);
-        BranchUtils.saveCommitId(HEAD, commitId);
+        BranchUtils.saveCommitId(getHead(), commitId);
     }
 
     /**
@@ -321,7 +445,7 @@ public class Repository {
             System.out.println("A branch with that name does not exist.");
             return;
         }
-        if (HEAD.equals(branchName)) {
+        if (getHead().equals(branchName)) {
             System.out.println("Cannot merge a branch with itself.");
             return;
         }
@@ -334,7 +458,7 @@ public class Repository {
         }
 
         Commit branchCommit = CommitUtils.readCommit(BranchUtils.getCommitId(branchName));
-        Commit splitPoint = CommitUtils.getSplitCommitWithGraph(HEAD, branchName);
+        Commit splitPoint = CommitUtils.getSplitCommitWithGraph(getHead(), branchName);
 
         if (splitPoint == null || CommitUtils.isSameCommit(branchCommit, splitPoint)) {
             System.out.println("Given branch is an ancestor of the current branch.");
@@ -342,10 +466,10 @@ public class Repository {
         }
 
         if (CommitUtils.isSameCommit(currentCommit, splitPoint)) {
-            String saveHead = HEAD;
+            String saveHead = getHead();
             checkout(branchName);
             HEAD = saveHead;
-            BranchUtils.saveCommitId(HEAD, BranchUtils.getCommitId(branchName));
+            BranchUtils.saveCommitId(getHead(), BranchUtils.getCommitId(branchName));
             System.out.println("Current branch fast-forwarded.");
             return;
         }
@@ -354,9 +478,19 @@ public class Repository {
         Set<String> currentCommitFiles = currentCommit.getFileVersionMap().keySet();
         Set<String> branchCommitFiles = branchCommit.getFileVersionMap().keySet();
 
-        Set<String> allRelevantFiles = new HashSet<>(splitPointFiles);
-        allRelevantFiles.addAll(currentCommitFiles);
-        allRelevantFiles.addAll(branchCommitFiles);
+        Set<String> allRelevantFiles;
+        if (splitPoint.getTreeId() != null && currentCommit.getTreeId() != null
+                && branchCommit.getTreeId() != null) {
+            // files which neither side changed since the split point keep their version
+            allRelevantFiles = new HashSet<>(
+                    TreeUtils.diff(GITLET_DIR, splitPoint.getTreeId(), currentCommit.getTreeId()).keySet());
+            allRelevantFiles.addAll(
+                    TreeUtils.diff(GITLET_DIR, splitPoint.getTreeId(), branchCommit.getTreeId()).keySet());
+        } else {
+            allRelevantFiles = new HashSet<>(splitPointFiles);
+            allRelevantFiles.addAll(currentCommitFiles);
+            allRelevantFiles.addAll(branchCommitFiles);
+        }
 
         boolean conflictFlag = false;
 
@@ -377,7 +511,8 @@ public class Repository {
                         System.out.println(MERGE_MODIFY_UNTRACKED_WARNING);
                         return;
                     } else {
-                        rm(fileName);
+                        IndexUtils.unstageFile(fileName);
+                        Utils.restrictedDelete(join(CWD, fileName));
                     }
                 } else {
                     //the branchCommit add the file
@@ -388,7 +523,7 @@ public class Repository {
                         return;
                     } else {
                         checkoutFile(branchCommit, fileName);
-                        add(fileName);
+                        IndexUtils.stageFile(fileName, branchCommit.getFileVersionMap().get(fileName));
                     }
                 }
                 continue;
@@ -412,24 +547,33 @@ public class Repository {
                     return;
                 } else {
                     FileUtils.writeCWDFile(fileName, String.valueOf(conflictedContents));
-                    add(fileName);
+                    IndexUtils.stageFile(fileName);
                 }
             }
         }
-        //call the commit api to make a commit
-        //set the secondparentId to it
-        commit("Merged " + branchName + " into " + HEAD + ".");
-        Commit mergeCommit = CommitUtils.readCommit(getHeadCommitId());
-        mergeCommit.setSecondParentId(BranchUtils.getCommitId(branchName));
-        //save the secondParentId
-        CommitUtils.saveCommit(mergeCommit);
-        BranchUtils.saveCommitId(HEAD, CommitUtils.getCommitId(mergeCommit));
+        // the files were staged in memory only, the commit writes the index once for all of them
+        //call the commit api to make a commit, with the branch commit as its second parent
+        commit("Merged " + branchName + " into " + getHead() + ".", BranchUtils.getCommitId(branchName));
 
         if (conflictFlag) {
             System.out.println("Encountered a merge conflict.");
         }
     }
 
+    /**
+     * rebuild .gitlet/commit-graph from every commit, e.g. after it has been deleted or damaged
+     */
+    public static void writeCommitGraph() {
+        CommitGraph.of(GITLET_DIR).rebuild(CommitUtils.getAllCommitIds());
+    }
+
+    /**
+     * rebuild .gitlet/commit-messages from every commit, e.g. after commits were copied in by hand
+     */
+    public static void writeMessageIndex() {
+        CommitMessageIndex.of(GITLET_DIR).rebuild();
+    }
+
     /**
      * It set HEAD --> branch_name (other function maybe about set head on commit,
      * but this project will ignore this situation)
@@ -447,7 +591,7 @@ public class Repository {
      * head --> branch name --> commit id
      */
     public static String getHeadCommitId() {
-        return BranchUtils.getCommitId(HEAD);
+        return BranchUtils.getCommitId(getHead());
     }
 
 }
@@ -0,0 +1,49 @@
+package gitlet;
+
+import java.io.File;
+
+/**
+ * @description what a fetch or a push has written to the other repository: commits, objects and bytes,
+ * the bytes being the size of the files as stored. objects the other side already had are not counted
+ */
+public class TransferStats {
+    private int commits = 0;
+    private int objects = 0;
+    private long bytes = 0;
+
+    public void addCommit(File written) {
+        commits += 1;
+        bytes += written.length();
+    }
+
+    public void addObject(File written) {
+        objects += 1;
+        bytes += written.length();
+    }
+
+    /**
+     * count a pack holding the commits and objects
+     */
+    public void addPack(File written, int packedCommits, int packedObjects) {
+        commits += packedCommits;
+        objects += packedObjects;
+        bytes += written.length();
+    }
+
+    public int getCommits() {
+        return commits;
+    }
+
+    public int getObjects() {
+        return objects;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d commits, %d objects, %d bytes", commits, objects, bytes);
+    }
+}
@@ -0,0 +1,531 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static gitlet.GitletConstants.OBJECTS_DIR;
+import static gitlet.GitletConstants.PACKS_DIR;
+import static gitlet.Utils.*;
+
+/**
+ * @description class for tree objects, the directory snapshots a commit points at.
+ * a tree lists the files and subdirectories of one directory, sorted by name,
+ * and is stored in .gitlet/objects like a file version, named by the sha1 of its bytes.
+ * so a directory which didn't change is the same tree in both commits, and two commits are
+ * compared by walking only the subtrees whose ids differ.
+ * <p>
+ * tree:   "GTRE" | 1 | entry count | entries...
+ * entry:  type(file or tree) | name(short length and utf-8 bytes) | id(20 bytes)
+ * <p>
+ * a directory with more than MAX_ENTRIES entries, like a large flat working directory, is split into buckets
+ * by one byte of the hash of the entry names, so a change only rewrites its own bucket and the fanout:
+ * fanout: "GTRE" | 2 | bucket count | buckets(bucket byte | id(20 bytes) | entry count)...
+ * a bucket is a tree of the entries which fall into it, or again a fanout split by the next byte of the hash.
+ * the shape only depends on the entries, so the same directory is always the same tree.
+ * <p>
+ * paths in a commit are separated by '/', a path without '/' is a file of the root tree.
+ */
+public class TreeUtils {
+    private static final int MAGIC = 0x47545245; // "GTRE"
+    private static final byte VERSION = 1;
+    private static final byte FANOUT_VERSION = 2;
+    private static final byte FILE = 1;
+    private static final byte TREE = 2;
+    private static final byte BUCKET = 3;
+    private static final int MAX_ENTRIES = 512;
+    private static final int MAX_DEPTH = 4; // bytes of the hash of a name
+    private static final String[] BUCKET_NAMES = new String[256];
+
+    static {
+        for (int i = 0; i < BUCKET_NAMES.length; i += 1) {
+            BUCKET_NAMES[i] = String.format("%02x", i);
+        }
+    }
+    private static final int ID_BYTES = UID_LENGTH / 2;
+
+    /**
+     * trees already read or saved in this command, (gitletDir, id) -> entries. trees never change once saved.
+     * keyed by repository too, as saveTree takes a cached tree to be stored in that repository
+     */
+    private static final HashMap<String, List<Entry>> READ_TREES = new HashMap<>();
+
+    /**
+     * forget the trees read so far. trees never change, but another process may have deleted
+     * unreachable ones, which must be written again when they are needed
+     */
+    static void reset() {
+        READ_TREES.clear();
+    }
+
+    /**
+     * @return if the stored form (at least its first 5 bytes) looks like a tree
+     */
+    public static boolean isTree(byte[] stored) {
+        return stored.length >= 5 && ByteBuffer.wrap(stored).getInt(0) == MAGIC
+                && (stored[4] == VERSION || stored[4] == FANOUT_VERSION);
+    }
+
+    /**
+     * one file or subdirectory of a tree, or one bucket of a fanout, named by its byte in hex
+     */
+    private static class Entry {
+        private final byte type;
+        private final String name;
+        private final String id;
+        /**
+         * the number of entries in a bucket
+         */
+        private final int count;
+
+        Entry(byte type, String name, String id) {
+            this(type, name, id, 0);
+        }
+
+        Entry(byte type, String name, String id, int count) {
+            this.type = type;
+            this.name = name;
+            this.id = id;
+            this.count = count;
+        }
+    }
+
+    /**
+     * write the trees of all the files, reusing trees which are already saved
+     *
+     * @param gitletDir the .gitlet folder to write to
+     * @param files     path -> file version
+     * @return the id of the root tree
+     */
+    public static String writeTree(File gitletDir, Map<String, String> files) {
+        String[] paths = files.keySet().toArray(new String[0]);
+        Arrays.sort(paths);
+        return writeTree(gitletDir, files, paths, 0, paths.length, 0);
+    }
+
+    /**
+     * write the tree of the paths[from, to), which share their first prefixLength characters
+     */
+    private static String writeTree(File gitletDir, Map<String, String> files, String[] paths,
+                                    int from, int to, int prefixLength) {
+        List<Entry> entries = new ArrayList<>();
+        int i = from;
+        while (i < to) {
+            String path = paths[i];
+            int slash = path.indexOf('/', prefixLength);
+            if (slash < 0) {
+                entries.add(new Entry(FILE, path.substring(prefixLength), files.get(path)));
+                i += 1;
+                continue;
+            }
+            String directory = path.substring(0, slash + 1);
+            int j = i + 1;
+            while (j < to && paths[j].startsWith(directory)) {
+                j += 1;
+            }
+            entries.add(new Entry(TREE, path.substring(prefixLength, slash),
+                    writeTree(gitletDir, files, paths, i, j, slash + 1)));
+            i = j;
+        }
+        return saveDirectory(gitletDir, entries, 0);
+    }
+
+    /**
+     * write the trees of the files, starting from the base tree and rewriting only the directories
+     * which contain changed paths. every path on which the files and the base tree differ must be changed
+     *
+     * @param baseTreeId   the root tree the files were equal to, except for the changed paths
+     * @param files        path -> file version
+     * @param changedPaths paths which may have been added, removed or changed since the base tree
+     * @return the id of the root tree
+     */
+    public static String updateTree(File gitletDir, String baseTreeId, Map<String, String> files,
+                                    Collection<String> changedPaths) {
+        if (changedPaths.isEmpty()) {
+            return baseTreeId;
+        }
+        String[] paths = changedPaths.toArray(new String[0]);
+        Arrays.sort(paths);
+        return updateTree(gitletDir, baseTreeId, files, paths, 0, paths.length, 0, 0);
+    }
+
+    /**
+     * @param depth the number of bucket levels between the directory and the tree of baseTreeId
+     */
+    private static String updateTree(File gitletDir, String baseTreeId, Map<String, String> files,
+                                     String[] paths, int from, int to, int prefixLength, int depth) {
+        List<Entry> baseEntries = baseTreeId == null ? List.of() : readEntries(gitletDir, baseTreeId);
+        if (isFanout(baseEntries)) {
+            return updateFanout(gitletDir, baseEntries, files, paths, from, to, prefixLength, depth);
+        }
+        TreeMap<String, Entry> entries = new TreeMap<>();
+        for (Entry entry : baseEntries) {
+            entries.put(entry.name, entry);
+        }
+        int i = from;
+        while (i < to) {
+            String path = paths[i];
+            int slash = path.indexOf('/', prefixLength);
+            if (slash < 0) {
+                String name = path.substring(prefixLength);
+                String fileSHA1 = files.get(path);
+                if (fileSHA1 != null) {
+                    entries.put(name, new Entry(FILE, name, fileSHA1));
+                } else if (entries.containsKey(name) && entries.get(name).type == FILE) {
+                    entries.remove(name);
+                }
+                i += 1;
+                continue;
+            }
+            String directory = path.substring(0, slash + 1);
+            int j = i + 1;
+            while (j < to && paths[j].startsWith(directory)) {
+                j += 1;
+            }
+            String name = path.substring(prefixLength, slash);
+            Entry base = entries.get(name);
+            String subtreeId = updateTree(gitletDir, base != null && base.type == TREE ? base.id : null,
+                    files, paths, i, j, slash + 1, 0);
+            if (!readEntries(gitletDir, subtreeId).isEmpty()) {
+                entries.put(name, new Entry(TREE, name, subtreeId));
+            } else if (base != null && base.type == TREE) {
+                // name may have just become a file, which sorts before the removed paths under it
+                entries.remove(name);
+            }
+            i = j;
+        }
+        return saveDirectory(gitletDir, new ArrayList<>(entries.values()), depth);
+    }
+
+    /**
+     * update only the buckets of the fanout which the changed paths fall into.
+     * if the directory has no more than MAX_ENTRIES entries afterwards, it is saved as one tree again
+     */
+    private static String updateFanout(File gitletDir, List<Entry> baseBuckets, Map<String, String> files,
+                                       String[] paths, int from, int to, int prefixLength, int depth) {
+        TreeMap<String, List<String>> changedBuckets = new TreeMap<>();
+        for (int i = from; i < to; i += 1) {
+            int slash = paths[i].indexOf('/', prefixLength);
+            String name = paths[i].substring(prefixLength, slash < 0 ? paths[i].length() : slash);
+            changedBuckets.computeIfAbsent(bucketName(name, depth), bucket -> new ArrayList<>()).add(paths[i]);
+        }
+        TreeMap<String, Entry> buckets = new TreeMap<>();
+        for (Entry bucket : baseBuckets) {
+            buckets.put(bucket.name, bucket);
+        }
+        for (String bucketName : changedBuckets.keySet()) {
+            Entry base = buckets.get(bucketName);
+            String[] bucketPaths = changedBuckets.get(bucketName).toArray(new String[0]);
+            String bucketId = updateTree(gitletDir, base == null ? null : base.id, files,
+                    bucketPaths, 0, bucketPaths.length, prefixLength, depth + 1);
+            int count = entryCount(gitletDir, bucketId);
+            if (count == 0) {
+                buckets.remove(bucketName);
+            } else {
+                buckets.put(bucketName, new Entry(BUCKET, bucketName, bucketId, count));
+            }
+        }
+        int count = 0;
+        for (Entry bucket : buckets.values()) {
+            count += bucket.count;
+        }
+        if (count > MAX_ENTRIES) {
+            return saveTree(gitletDir, new ArrayList<>(buckets.values()));
+        }
+        List<Entry> entries = new ArrayList<>();
+        for (Entry bucket : buckets.values()) {
+            entries.addAll(directoryEntries(gitletDir, bucket.id));
+        }
+        return saveTree(gitletDir, entries);
+    }
+
+    /**
+     * @return all files of the tree and its subtrees, path -> file version
+     */
+    public static HashMap<String, String> readTree(File gitletDir, String treeId) {
+        HashMap<String, String> files = new HashMap<>();
+        readTree(gitletDir, treeId, "", files);
+        return files;
+    }
+
+    private static void readTree(File gitletDir, String treeId, String prefix, Map<String, String> files) {
+        for (Entry entry : readEntries(gitletDir, treeId)) {
+            if (entry.type == FILE) {
+                files.put(prefix + entry.name, entry.id);
+            } else {
+                readTree(gitletDir, entry.id, entry.type == BUCKET ? prefix : prefix + entry.name + "/", files);
+            }
+        }
+    }
+
+    /**
+     * compare two trees, walking only subtrees whose ids differ
+     *
+     * @return every path whose version differs -> its version in the second tree, null if it isn't there.
+     * a null tree id is an empty tree
+     */
+    public static TreeMap<String, String> diff(File gitletDir, String treeId1, String treeId2) {
+        TreeMap<String, String> changes = new TreeMap<>();
+        diff(gitletDir, treeId1, treeId2, "", changes);
+        return changes;
+    }
+
+    private static void diff(File gitletDir, String treeId1, String treeId2, String prefix,
+                             Map<String, String> changes) {
+        if (Objects.equals(treeId1, treeId2)) {
+            return;
+        }
+        List<Entry> entries1 = treeId1 == null ? List.of() : readEntries(gitletDir, treeId1);
+        List<Entry> entries2 = treeId2 == null ? List.of() : readEntries(gitletDir, treeId2);
+        if (isFanout(entries1) && isFanout(entries2)) {
+            diffBuckets(gitletDir, entries1, entries2, prefix, changes);
+            return;
+        }
+        // one directory may be split into buckets and the other not, compare their entries then
+        entries1 = treeId1 == null ? entries1 : directoryEntries(gitletDir, treeId1);
+        entries2 = treeId2 == null ? entries2 : directoryEntries(gitletDir, treeId2);
+        int i = 0;
+        int j = 0;
+        while (i < entries1.size() || j < entries2.size()) {
+            int cmp = i == entries1.size() ? 1 : j == entries2.size() ? -1
+                    : entries1.get(i).name.compareTo(entries2.get(j).name);
+            Entry entry1 = cmp <= 0 ? entries1.get(i++) : null;
+            Entry entry2 = cmp >= 0 ? entries2.get(j++) : null;
+            if (entry1 != null && entry2 != null && entry1.type == entry2.type) {
+                if (entry1.type == TREE) {
+                    diff(gitletDir, entry1.id, entry2.id, prefix + entry1.name + "/", changes);
+                } else if (!entry1.id.equals(entry2.id)) {
+                    changes.put(prefix + entry1.name, entry2.id);
+                }
+                continue;
+            }
+            if (entry1 != null) {
+                if (entry1.type == TREE) {
+                    diff(gitletDir, entry1.id, null, prefix + entry1.name + "/", changes);
+                } else {
+                    changes.put(prefix + entry1.name, null);
+                }
+            }
+            if (entry2 != null) {
+                if (entry2.type == TREE) {
+                    diff(gitletDir, null, entry2.id, prefix + entry2.name + "/", changes);
+                } else {
+                    changes.put(prefix + entry2.name, entry2.id);
+                }
+            }
+        }
+    }
+
+    /**
+     * compare two fanouts of the same directory bucket by bucket, skipping the buckets whose ids are equal
+     */
+    private static void diffBuckets(File gitletDir, List<Entry> buckets1, List<Entry> buckets2, String prefix,
+                                    Map<String, String> changes) {
+        int i = 0;
+        int j = 0;
+        while (i < buckets1.size() || j < buckets2.size()) {
+            int cmp = i == buckets1.size() ? 1 : j == buckets2.size() ? -1
+                    : buckets1.get(i).name.compareTo(buckets2.get(j).name);
+            String bucketId1 = cmp <= 0 ? buckets1.get(i++).id : null;
+            String bucketId2 = cmp >= 0 ? buckets2.get(j++).id : null;
+            diff(gitletDir, bucketId1, bucketId2, prefix, changes);
+        }
+    }
+
+    /**
+     * @return ids of the tree and all its subtrees
+     */
+    public static List<String> listTreeIds(File gitletDir, String treeId) {
+        List<String> treeIds = new ArrayList<>();
+        Deque<String> stack = new ArrayDeque<>();
+        stack.push(treeId);
+        while (!stack.isEmpty()) {
+            String id = stack.pop();
+            treeIds.add(id);
+            for (Entry entry : readEntries(gitletDir, id)) {
+                if (entry.type != FILE) {
+                    stack.push(entry.id);
+                }
+            }
+        }
+        return treeIds;
+    }
+
+    /**
+     * add the ids the tree lists directly to fileIds and subtreeIds. the tree isn't kept in memory,
+     * so a walk over every tree of a repository, like gc's, doesn't hold them all
+     */
+    public static void listChildren(File gitletDir, String treeId, List<String> fileIds, List<String> subtreeIds) {
+        List<Entry> entries = READ_TREES.get(cacheKey(gitletDir, treeId));
+        for (Entry entry : entries != null ? entries : decodeEntries(gitletDir, treeId)) {
+            (entry.type == FILE ? fileIds : subtreeIds).add(entry.id);
+        }
+    }
+
+    private static List<Entry> readEntries(File gitletDir, String treeId) {
+        List<Entry> entries = READ_TREES.get(cacheKey(gitletDir, treeId));
+        if (entries == null) {
+            entries = decodeEntries(gitletDir, treeId);
+            READ_TREES.put(cacheKey(gitletDir, treeId), entries);
+        }
+        return entries;
+    }
+
+    private static List<Entry> decodeEntries(File gitletDir, String treeId) {
+        List<Entry> entries;
+        ByteBuffer buffer = ByteBuffer.wrap(FileUtils.readBlob(gitletDir, treeId));
+        try {
+            byte version = buffer.getInt() == MAGIC ? buffer.get() : 0;
+            if (version == FANOUT_VERSION) {
+                return decodeBuckets(buffer);
+            }
+            if (version != VERSION) {
+                throw error("Corrupted tree %s.", treeId);
+            }
+            int count = buffer.getInt();
+            entries = new ArrayList<>(Math.min(count, buffer.remaining() / (3 + ID_BYTES)));
+            for (int i = 0; i < count; i += 1) {
+                byte type = buffer.get();
+                byte[] name = new byte[buffer.getShort() & 0xffff];
+                buffer.get(name);
+                String id = bytesToId(buffer.array(), buffer.position());
+                buffer.position(buffer.position() + ID_BYTES);
+                entries.add(new Entry(type, new String(name, StandardCharsets.UTF_8), id));
+            }
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException excp) {
+            throw error("Corrupted tree %s.", treeId);
+        }
+        return entries;
+    }
+
+    private static List<Entry> decodeBuckets(ByteBuffer buffer) {
+        int count = buffer.getInt();
+        List<Entry> buckets = new ArrayList<>(Math.min(count, buffer.remaining() / (1 + ID_BYTES + 4)));
+        for (int i = 0; i < count; i += 1) {
+            String name = BUCKET_NAMES[buffer.get() & 0xff];
+            String id = bytesToId(buffer.array(), buffer.position());
+            buffer.position(buffer.position() + ID_BYTES);
+            buckets.add(new Entry(BUCKET, name, id, buffer.getInt()));
+        }
+        return buckets;
+    }
+
+    private static boolean isFanout(List<Entry> entries) {
+        return !entries.isEmpty() && entries.get(0).type == BUCKET;
+    }
+
+    /**
+     * @return the number of files and subdirectories in the directory of the tree
+     */
+    private static int entryCount(File gitletDir, String treeId) {
+        List<Entry> entries = readEntries(gitletDir, treeId);
+        if (!isFanout(entries)) {
+            return entries.size();
+        }
+        int count = 0;
+        for (Entry bucket : entries) {
+            count += bucket.count;
+        }
+        return count;
+    }
+
+    /**
+     * @return the files and subdirectories of the directory of the tree, sorted by name, with its buckets expanded
+     */
+    private static List<Entry> directoryEntries(File gitletDir, String treeId) {
+        List<Entry> entries = readEntries(gitletDir, treeId);
+        if (!isFanout(entries)) {
+            return entries;
+        }
+        List<Entry> expanded = new ArrayList<>();
+        for (Entry bucket : entries) {
+            expanded.addAll(directoryEntries(gitletDir, bucket.id));
+        }
+        expanded.sort(Comparator.comparing(entry -> entry.name));
+        return expanded;
+    }
+
+    /**
+     * @return the bucket of the name in a fanout depth levels below its directory, one byte of the name's hash in hex
+     */
+    private static String bucketName(String name, int depth) {
+        int hash = name.hashCode(); // specified by String, so the same on every JVM; mixed like murmur3's fmix32
+        hash = (hash ^ (hash >>> 16)) * 0x85ebca6b;
+        hash = (hash ^ (hash >>> 13)) * 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return BUCKET_NAMES[(hash >>> (24 - 8 * depth)) & 0xff];
+    }
+
+    /**
+     * save the entries of a directory depth bucket levels below it, split into buckets if there are
+     * more than MAX_ENTRIES of them
+     *
+     * @return the id of the tree or fanout
+     */
+    private static String saveDirectory(File gitletDir, List<Entry> entries, int depth) {
+        if (entries.size() <= MAX_ENTRIES || depth == MAX_DEPTH) {
+            return saveTree(gitletDir, entries);
+        }
+        TreeMap<String, List<Entry>> buckets = new TreeMap<>();
+        for (Entry entry : entries) {
+            buckets.computeIfAbsent(bucketName(entry.name, depth), bucket -> new ArrayList<>()).add(entry);
+        }
+        List<Entry> bucketEntries = new ArrayList<>();
+        for (String bucketName : buckets.keySet()) {
+            List<Entry> bucket = buckets.get(bucketName);
+            bucketEntries.add(new Entry(BUCKET, bucketName, saveDirectory(gitletDir, bucket, depth + 1), bucket.size()));
+        }
+        return saveTree(gitletDir, bucketEntries);
+    }
+
+    /**
+     * encode the entries, sorted by name, and save them unless the tree is already stored
+     *
+     * @return the id of the tree
+     */
+    private static String saveTree(File gitletDir, List<Entry> entries) {
+        entries.sort(Comparator.comparing(entry -> entry.name));
+        byte[] tree = isFanout(entries) ? encodeBuckets(entries) : encodeEntries(entries);
+        String treeId = sha1(tree);
+        if (!READ_TREES.containsKey(cacheKey(gitletDir, treeId))) {
+            File objectsDir = join(gitletDir, OBJECTS_DIR.getName());
+            if (!ObjectPathUtils.looseFile(objectsDir, treeId).exists()
+                    && !PackUtils.hasObject(join(gitletDir, PACKS_DIR.getName()), treeId)) {
+                CompressUtils.writeObject(ObjectPathUtils.newLooseFile(objectsDir, treeId), tree);
+            }
+            READ_TREES.put(cacheKey(gitletDir, treeId), Collections.unmodifiableList(new ArrayList<>(entries)));
+        }
+        return treeId;
+    }
+
+    private static byte[] encodeEntries(List<Entry> entries) {
+        byte[][] names = new byte[entries.size()][];
+        int length = 4 + 1 + 4;
+        for (int i = 0; i < names.length; i += 1) {
+            names[i] = entries.get(i).name.getBytes(StandardCharsets.UTF_8);
+            length += 1 + 2 + names[i].length + ID_BYTES;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.putInt(MAGIC).put(VERSION).putInt(entries.size());
+        for (int i = 0; i < names.length; i += 1) {
+            buffer.put(entries.get(i).type).putShort((short) names[i].length).put(names[i]);
+            buffer.put(idToBytes(entries.get(i).id));
+        }
+        return buffer.array();
+    }
+
+    private static byte[] encodeBuckets(List<Entry> buckets) {
+        ByteBuffer buffer = ByteBuffer.allocate(4 + 1 + 4 + buckets.size() * (1 + ID_BYTES + 4));
+        buffer.putInt(MAGIC).put(FANOUT_VERSION).putInt(buckets.size());
+        for (Entry bucket : buckets) {
+            buffer.put((byte) Integer.parseInt(bucket.name, 16)).put(idToBytes(bucket.id)).putInt(bucket.count);
+        }
+        return buffer.array();
+    }
+
+    private static String cacheKey(File gitletDir, String treeId) {
+        return gitletDir.getAbsolutePath() + File.pathSeparator + treeId;
+    }
+}
@@ -8,6 +8,7 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 import java.util.Formatter;
+import java.util.HexFormat;
 import java.util.List;
 
 
@@ -26,6 +27,11 @@ class Utils {
      */
     static final int UID_LENGTH = 40;
 
+    /**
+     * Lower case hexadecimal digits, as sha1 writes them.
+     */
+    private static final HexFormat HEX = HexFormat.of();
+
     /* SHA-1 HASH VALUES. */
     /**
      * Filter out all but plain files.
@@ -64,6 +70,25 @@ class Utils {
         }
     }
 
+    /**
+     * Returns a fresh SHA-1 MessageDigest, for contents that are streamed
+     * rather than held in memory at once.
+     */
+    static MessageDigest sha1Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /**
+     * Returns the hexadecimal UID of the contents digested so far by MD.
+     */
+    static String digestToId(MessageDigest md) {
+        return bytesToId(md.digest(), 0);
+    }
+
     /* FILE DELETION */
 
     /**
@@ -244,6 +269,42 @@ class Utils {
         }
     }
 
+    /**
+     * Return an object of type T read from the serialized bytes BYTES,
+     * casting it to EXPECTEDCLASS. Throws IllegalArgumentException in case
+     * of problems.
+     */
+    static <T extends Serializable> T deserialize(byte[] bytes,
+                                                  Class<T> expectedClass) {
+        try {
+            ObjectInputStream in =
+                    new ObjectInputStream(new ByteArrayInputStream(bytes));
+            T result = expectedClass.cast(in.readObject());
+            in.close();
+            return result;
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /* OBJECT IDS */
+
+    /**
+     * Returns the UID_LENGTH / 2 raw bytes of the hexadecimal SHA-1 UID ID.
+     */
+    static byte[] idToBytes(String id) {
+        return HEX.parseHex(id, 0, UID_LENGTH);
+    }
+
+    /**
+     * Returns the hexadecimal UID of the UID_LENGTH / 2 raw bytes in BYTES
+     * starting at OFFSET.
+     */
+    static String bytesToId(byte[] bytes, int offset) {
+        return HEX.formatHex(bytes, offset, offset + UID_LENGTH / 2);
+    }
+
 
 
     /* MESSAGES AND ERROR REPORTING */
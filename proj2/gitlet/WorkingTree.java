@@ -0,0 +1,113 @@
+package gitlet;
+
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+import static gitlet.GitletConstants.CWD;
+import static gitlet.GitletConstants.TRACE;
+import static gitlet.Utils.join;
+import static gitlet.Utils.plainFilenamesIn;
+
+/**
+ * @description a snapshot of the working directory, scanned once per command:
+ * the names of all plain files, and the sha1 of every file the index or the commit knows about.
+ * files whose stat cache entry still matches are not read at all,
+ * the others are hashed in parallel on the fork-join pool.
+ */
+public class WorkingTree {
+    private final HashSet<String> fileNames;
+    private final HashMap<String, String> fileSHA1s = new HashMap<>();
+
+    /**
+     * the sha1 of one candidate file, and whether it had to be hashed
+     */
+    private static class ScannedFile {
+        private final String fileName;
+        private final BasicFileAttributes attributes;
+        private final String sha1;
+        private final boolean hashed;
+
+        ScannedFile(String fileName) {
+            this.fileName = fileName;
+            this.attributes = IndexUtils.readAttributes(join(CWD, fileName));
+            String cached = IndexUtils.cachedSha1(fileName, attributes);
+            this.hashed = cached == null;
+            this.sha1 = hashed ? FileUtils.hashFile(join(CWD, fileName)) : cached;
+        }
+    }
+
+    private WorkingTree(List<String> cwdFileNames) {
+        fileNames = new HashSet<>(cwdFileNames);
+    }
+
+    /**
+     * scan the working directory, hashing every file tracked by the commit or in the index
+     */
+    public static WorkingTree scan(Commit commit) {
+        long start = System.nanoTime();
+        WorkingTree tree = new WorkingTree(plainFilenamesIn(CWD));
+        HashMap<String, String> indexMap = IndexUtils.getIndexMap();
+        List<String> candidates = new ArrayList<>();
+        for (String fileName : tree.fileNames) {
+            if (indexMap.containsKey(fileName) || CommitUtils.isTrackedByCommit(commit, fileName)) {
+                candidates.add(fileName);
+            }
+        }
+        int hashed = 0;
+        for (ScannedFile file : scanFiles(candidates)) {
+            tree.fileSHA1s.put(file.fileName, file.sha1);
+            hashed += file.hashed ? 1 : 0;
+        }
+        if (TRACE) {
+            System.err.printf("working tree: %d files, %d hashed, %.1f ms on %d threads%n", tree.fileNames.size(),
+                    hashed, (System.nanoTime() - start) / 1e6, ForkJoinPool.commonPool().getParallelism());
+        }
+        return tree;
+    }
+
+    /**
+     * hash the working files like scan does, e.g. the files of one add
+     *
+     * @return file name -> sha1 of its contents
+     */
+    public static HashMap<String, String> hash(Collection<String> fileNames) {
+        HashMap<String, String> fileSHA1s = new HashMap<>();
+        for (ScannedFile file : scanFiles(fileNames)) {
+            fileSHA1s.put(file.fileName, file.sha1);
+        }
+        return fileSHA1s;
+    }
+
+    /**
+     * hash the files in parallel, except those whose stat cache entry still matches,
+     * and remember the stats of the hashed ones
+     */
+    private static List<ScannedFile> scanFiles(Collection<String> fileNames) {
+        IndexUtils.getIndexMap(); // read the stat cache before the threads look into it
+        List<ScannedFile> scanned = ForkJoinPool.commonPool().submit(() -> fileNames.parallelStream()
+                .map(ScannedFile::new).collect(Collectors.toList())).join();
+        for (ScannedFile file : scanned) {
+            if (file.hashed) {
+                IndexUtils.recordStat(file.fileName, file.attributes, file.sha1);
+            }
+        }
+        return scanned;
+    }
+
+    public boolean contains(String fileName) {
+        return fileNames.contains(fileName);
+    }
+
+    public Set<String> getFileNames() {
+        return fileNames;
+    }
+
+    /**
+     * @return the sha1 of a file tracked by the commit or in the index, null for other files
+     */
+    public String sha1Of(String fileName) {
+        return fileSHA1s.get(fileName);
+    }
+}